@@ -1,7 +1,220 @@
 package elevatorsim;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Entry point for the elevator simulator. With no positional arguments it launches
+ * the JavaFX game (e.g. Analyzer --floors=200); otherwise it runs the headless
+ * engine and prints statistics.
+ *
+ * Usage: Analyzer <floors> <probability> <ticks> [tick|event|bank] [seed] [options]
+ *
+ * Tick mode steps every tick like the GUI does; event mode jumps the clock
+ * between arrivals and elevator events, which is much faster for sparse traffic.
+ * Bank mode simulates several cars and accepts --cars=N, --capacity=N and
+ * --dispatcher=fifo|nearest|look|collective.
+ *
+ * --replay=FILE replays recorded arrivals (CSV of time,source,destination or the
+ * binary format from BinaryArrivalWriter) instead of generating them; the
+ * probability and seed are then ignored.
+ *
+ * --jmx publishes live statistics as an MBean (see SimulationMonitor) while the
+ * run is in progress.
+ *
+ * --trace=FILE writes a binary event trace of the run (read it back with
+ * TraceReader); --trace-level=trips|all chooses how much is recorded.
+ */
 public class Analyzer {
+    private static final int MONITOR_CHUNK = 100_000;
+
     public static void main(String[] args) {
-        ElevatorGameEnhanced.main(args);
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                int eq = arg.indexOf('=');
+                options.put(arg.substring(2, eq).toLowerCase(), arg.substring(eq + 1));
+            } else if (arg.startsWith("--") && arg.length() > 2 && arg.indexOf('=') < 0) {
+                options.put(arg.substring(2).toLowerCase(), "true"); // flag such as --jmx
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.isEmpty()) {
+            ElevatorGameEnhanced.main(args); // options such as --floors=N go to the GUI
+            return;
+        }
+        if (positional.size() < 3 || positional.size() > 5) {
+            printUsage();
+            return;
+        }
+
+        int floors;
+        double probability;
+        int ticks;
+        long seed;
+        int cars;
+        int capacity;
+        try {
+            floors = Integer.parseInt(positional.get(0));
+            probability = Double.parseDouble(positional.get(1));
+            ticks = Integer.parseInt(positional.get(2));
+            seed = (positional.size() == 5) ? Long.parseLong(positional.get(4)) : new RandomSource().nextLong();
+            cars = Integer.parseInt(options.getOrDefault("cars", "4"));
+            capacity = Integer.parseInt(options.getOrDefault("capacity", "8"));
+        } catch (NumberFormatException e) {
+            printUsage();
+            return;
+        }
+        if (ticks < 0) {
+            System.err.println("Tick count must not be negative");
+            return;
+        }
+        String mode = (positional.size() >= 4) ? positional.get(3).toLowerCase() : "tick";
+        if (!mode.equals("tick") && !mode.equals("event") && !mode.equals("bank")) {
+            printUsage();
+            return;
+        }
+
+        ArrivalSource replay = null;
+        String replayFile = options.get("replay");
+        if (replayFile != null) {
+            try {
+                replay = ArrivalSource.open(Paths.get(replayFile));
+            } catch (IOException e) {
+                System.err.println("Could not open replay: " + e.getMessage());
+                return;
+            }
+        }
+
+        try {
+            run(mode, floors, probability, ticks, seed, cars, capacity, replay, options);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (replay != null) {
+                try {
+                    replay.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close replay: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void run(String mode, int floors, double probability, int ticks, long seed, int cars,
+                            int capacity, ArrivalSource replay, Map<String, String> options) {
+        Simulation sim;
+        switch (mode) {
+            case "event":
+                sim = (replay != null) ? new EventSimulation(floors, replay)
+                                       : new EventSimulation(floors, probability, seed);
+                break;
+            case "bank":
+                Dispatcher dispatcher = Dispatcher.forName(options.getOrDefault("dispatcher", "collective"));
+                sim = (replay != null) ? new BankSimulation(floors, cars, capacity, dispatcher, replay)
+                                       : new BankSimulation(floors, cars, capacity, probability, dispatcher, new RandomSource(seed));
+                break;
+            default:
+                sim = (replay != null) ? new HeadlessSimulation(floors, replay)
+                                       : new HeadlessSimulation(floors, probability, seed);
+        }
+
+        TraceLog trace = null;
+        String traceFile = options.get("trace");
+        if (traceFile != null) {
+            try {
+                trace = new TraceLog(Paths.get(traceFile), TraceLevel.forName(options.getOrDefault("trace-level", "all")));
+            } catch (IllegalArgumentException | IOException e) {
+                System.err.println("Could not open trace: " + e.getMessage());
+                return;
+            }
+            sim.setTraceLog(trace);
+        }
+
+        SimulationMonitor monitor = null;
+        ObjectName monitorName = null;
+        if (options.containsKey("jmx")) {
+            monitor = new SimulationMonitor();
+            try {
+                monitorName = monitor.register(mode + "-" + seed);
+            } catch (JMException e) {
+                System.err.println("Could not register MBean: " + e.getMessage());
+                monitor = null;
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            if (monitor == null)
+                sim.run(ticks);
+            else
+                runMonitored(sim, ticks, monitor);
+            long elapsed = System.nanoTime() - start;
+            printReport(sim, seed, elapsed);
+        } finally {
+            if (trace != null)
+                closeTrace(trace);
+            if (monitorName != null)
+                SimulationMonitor.unregister(monitorName);
+        }
+    }
+
+    // Runs in chunks so the monitor sees progress during the run.
+    private static void runMonitored(Simulation sim, int ticks, SimulationMonitor monitor) {
+        while (ticks > 0) {
+            int chunk = Math.min(ticks, MONITOR_CHUNK);
+            long start = System.nanoTime();
+            sim.run(chunk);
+            monitor.record(sim, chunk, System.nanoTime() - start);
+            ticks -= chunk;
+        }
+        monitor.publish(sim);
+    }
+
+    private static void closeTrace(TraceLog trace) {
+        try {
+            trace.close();
+            if (trace.getDroppedCount() > 0)
+                System.err.println("Trace dropped " + trace.getDroppedCount() + " records; the writer could not keep up");
+        } catch (IOException e) {
+            System.err.println("Could not write trace: " + e.getMessage());
+        }
+    }
+
+    private static void printReport(Simulation sim, long seed, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Seed:            " + seed);
+        System.out.println("Floors:          " + sim.getFloors());
+        System.out.println("Ticks:           " + sim.getCurrentTime());
+        System.out.println("Arrivals:        " + sim.getArrivals());
+        System.out.println("Picked up:       " + sim.getServedCount());
+        System.out.println("Delivered:       " + sim.getDeliveredCount());
+        System.out.println("Throughput:      " + String.format("%.4f", sim.getThroughput()) + " trips/tick");
+        System.out.println("Utilization:     " + String.format("%.4f", sim.getUtilization()));
+        System.out.println("Avg Wait:        " + String.format("%.2f", sim.getAverageWait()) + " ticks");
+        System.out.println("Wait:            " + SimStats.percentiles(sim.getStats().getWaitTimes()));
+        System.out.println("Ride:            " + SimStats.percentiles(sim.getStats().getRideTimes()));
+        System.out.println("Queue Depth:     " + SimStats.percentiles(sim.getStats().getQueueDepths()));
+        System.out.println("Final Queue:     " + sim.getQueueSize());
+        System.out.println("Max Queue:       " + sim.getMaxQueueSize());
+        System.out.println("Elapsed:         " + String.format("%.3f", seconds) + " s");
+        if (seconds > 0)
+            System.out.println("Ticks/sec:       " + String.format("%.0f", sim.getCurrentTime() / seconds));
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: Analyzer <floors> <probability> <ticks> [tick|event|bank] [seed]");
+        System.err.println("                [--cars=N] [--capacity=N] [--dispatcher=fifo|nearest|look|collective]");
+        System.err.println("                [--replay=FILE] [--jmx] [--trace=FILE] [--trace-level=trips|all]");
+        System.err.println("       Analyzer [--floors=N]  (launches the JavaFX simulator)");
     }
 }
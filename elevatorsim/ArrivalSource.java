@@ -0,0 +1,47 @@
+package elevatorsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Recorded arrivals to replay through a simulation in place of the random
+ * BooleanSource, read one at a time so a file of any length can be replayed in
+ * constant memory. Arrivals come in non-decreasing time order, with times in
+ * ticks from the start of the run; an arrival stamped at or before the current
+ * tick joins the queue on the next tick the engine processes.
+ *
+ * advance() reports I/O failures as UncheckedIOException, since it is called
+ * from inside Simulation.run().
+ */
+public interface ArrivalSource extends Closeable {
+    // Moves to the next arrival; returns false once the source is exhausted.
+    boolean advance();
+
+    int getTime();
+    int getSourceFloor();
+    int getDestinationFloor();
+
+    // Opens a binary arrival file (recognised by its header) or otherwise a CSV file.
+    static ArrivalSource open(Path file) throws IOException {
+        int magic = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(4);
+            if (head.length == 4)
+                magic = ByteBuffer.wrap(head).getInt();
+        }
+        return (magic == BinaryArrivalSource.MAGIC) ? new BinaryArrivalSource(file) : new CsvArrivalSource(file);
+    }
+
+    // Rejects a replayed arrival whose floors lie outside the simulated building.
+    static void checkFloors(ArrivalSource source, int floors) {
+        int s = source.getSourceFloor();
+        int d = source.getDestinationFloor();
+        if (s < 1 || s > floors || d < 1 || d > floors)
+            throw new IllegalArgumentException("Arrival at time " + source.getTime() + " from floor " + s +
+                                               " to " + d + " is outside floors 1-" + floors);
+    }
+}
@@ -0,0 +1,130 @@
+package elevatorsim;
+
+/**
+ * Headless simulation of a bank of cars sharing one set of hall calls. Arrivals
+ * are registered in a HallCallIndex, a Dispatcher assigns each call to a car, and
+ * every car then takes one shift per tick, picking up riders on the way when the
+ * strategy allows it. Arrivals may also be replayed from an ArrivalSource.
+ */
+public class BankSimulation implements Simulation {
+    private final int floors;
+    private final RandomSource random;
+    private final BooleanSource requestProb;
+    private final Elevator[] cars;
+    private final Dispatcher dispatcher;
+    private final HallCallIndex halls;
+    private final SimStats stats = new SimStats();
+    private TraceLog trace;
+    private ArrivalSource replay;
+    private boolean replayReady;
+    private int currentTime;
+
+    private long arrivals;
+    private int maxQueueSize;
+    private long busyCarTicks;
+
+    public BankSimulation(int floors, int carCount, int capacity, double probability,
+                          Dispatcher dispatcher, RandomSource random) {
+        if (floors < 1)
+            throw new IllegalArgumentException("Building must have at least one floor");
+        if (carCount < 1)
+            throw new IllegalArgumentException("Bank must have at least one car");
+        this.floors = floors;
+        this.random = random;
+        this.dispatcher = dispatcher;
+        requestProb = new BooleanSource(probability, random);
+        cars = new Elevator[carCount];
+        for (int i = 0; i < carCount; i++)
+            cars[i] = new Elevator(capacity);
+        halls = new HallCallIndex(floors);
+    }
+
+    // Replays recorded arrivals instead of generating them. The caller closes the source.
+    public BankSimulation(int floors, int carCount, int capacity, Dispatcher dispatcher, ArrivalSource replay) {
+        this(floors, carCount, capacity, 0.0, dispatcher, new RandomSource());
+        this.replay = replay;
+        replayReady = replay.advance();
+    }
+
+    // Advances the simulation by a single tick.
+    public void tick() {
+        currentTime++;
+
+        if (replay != null) {
+            while (replayReady && replay.getTime() <= currentTime) {
+                ArrivalSource.checkFloors(replay, floors);
+                arrive(replay.getSourceFloor(), replay.getDestinationFloor());
+                replayReady = replay.advance();
+            }
+        } else if (requestProb.requestArrived()) {
+            arrive(random.nextFloor(floors), random.nextFloor(floors));
+        }
+
+        dispatchPending();
+
+        boolean collective = dispatcher.isCollective();
+        for (Elevator car : cars) {
+            car.shift(currentTime, halls, collective, stats);
+            if (car.getElevatorState() != Elevator.IDLE)
+                busyCarTicks++;
+        }
+        stats.recordQueueDepth(halls.size());
+    }
+
+    @Override
+    public void run(int ticks) {
+        for (int i = 0; i < ticks; i++)
+            tick();
+    }
+
+    private void arrive(int source, int destination) {
+        halls.add(source, destination, currentTime);
+        if (trace != null)
+            trace.arrival(currentTime, source, destination);
+        arrivals++;
+        if (halls.size() > maxQueueSize)
+            maxQueueSize = halls.size();
+    }
+
+    // Offers every waiting call to the dispatcher, oldest first. A call it defers
+    // stays pending in its place without holding up the calls behind it.
+    private void dispatchPending() {
+        for (int n = halls.pendingCount(); n > 0; n--) {
+            int floor = halls.peekPendingFloor();
+            int direction = halls.peekPendingDirection();
+            if (!halls.hasCall(floor, direction) || halls.getAssignedCar(floor, direction) >= 0) {
+                halls.removePending(); // already answered by a passing car
+                continue;
+            }
+            int car = dispatcher.selectCar(cars, floors, floor, direction);
+            if (car < 0) {
+                halls.deferPending();
+                continue;
+            }
+            halls.removePending();
+            halls.setAssignedCar(floor, direction, car);
+            cars[car].assignCall(floor, direction);
+            if (trace != null)
+                trace.assign(currentTime, car, floor, direction);
+        }
+    }
+
+    @Override public int getFloors() { return floors; }
+    @Override public int getCurrentTime() { return currentTime; }
+    @Override public int getQueueSize() { return halls.size(); }
+    @Override public int getMaxQueueSize() { return maxQueueSize; }
+    @Override public long getArrivals() { return arrivals; }
+    @Override public long getBusyTicks() { return busyCarTicks; }
+    @Override public int getCarCount() { return cars.length; }
+    @Override public SimStats getStats() { return stats; }
+
+    @Override
+    public void setTraceLog(TraceLog trace) {
+        this.trace = trace;
+        for (int i = 0; i < cars.length; i++)
+            cars[i].setTraceLog(trace, i);
+    }
+
+    public Elevator[] getCars() { return cars; }
+    public Dispatcher getDispatcher() { return dispatcher; }
+}
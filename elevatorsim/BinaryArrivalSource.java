@@ -0,0 +1,96 @@
+package elevatorsim;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams arrivals from the compact binary format written by BinaryArrivalWriter:
+ * a 16-byte header (magic "ELVA", version, record count) followed by 12-byte
+ * big-endian records of time, source floor and destination floor.
+ *
+ * The file is memory-mapped a window at a time, so reading a record is three
+ * getInt calls on mapped memory and files larger than 2 GB still work.
+ */
+public class BinaryArrivalSource implements ArrivalSource {
+    public static final int MAGIC = 0x454c5641; // "ELVA"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 12;
+
+    private static final long WINDOW_RECORDS = 1 << 22; // 48 MB per mapping
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long recordCount;
+    private long nextRecord;
+    private MappedByteBuffer window;
+
+    private int time;
+    private int sourceFloor;
+    private int destinationFloor;
+
+    public BinaryArrivalSource(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException("Not a binary arrival file: " + file);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported arrival file version " + version);
+            recordCount = header.getLong();
+            if (recordCount < 0 || HEADER_SIZE + recordCount * RECORD_SIZE > channel.size())
+                throw new IOException("Arrival file is truncated: " + file);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getRecordCount() { return recordCount; }
+
+    @Override
+    public boolean advance() {
+        if (nextRecord == recordCount)
+            return false;
+        if (window == null || !window.hasRemaining())
+            mapWindow();
+        int t = window.getInt();
+        if (t < time)
+            throw new IllegalArgumentException(file + " record " + nextRecord + ": arrivals are out of time order");
+        time = t;
+        sourceFloor = window.getInt();
+        destinationFloor = window.getInt();
+        nextRecord++;
+        return true;
+    }
+
+    @Override public int getTime() { return time; }
+    @Override public int getSourceFloor() { return sourceFloor; }
+    @Override public int getDestinationFloor() { return destinationFloor; }
+
+    // Closes the channel; mapped windows are released once they are garbage collected.
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void mapWindow() {
+        long records = Math.min(WINDOW_RECORDS, recordCount - nextRecord);
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 HEADER_SIZE + nextRecord * RECORD_SIZE, records * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package elevatorsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes arrivals in the binary format read by BinaryArrivalSource, and converts
+ * CSV arrival logs to it so they can be replayed without parsing text.
+ *
+ * Usage: BinaryArrivalWriter <input.csv> <output.bin>
+ */
+public class BinaryArrivalWriter implements Closeable {
+    private static final int BUFFER_RECORDS = 1 << 14;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * BinaryArrivalSource.RECORD_SIZE);
+    private long count;
+    private int lastTime;
+
+    public BinaryArrivalWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader(); // the count is filled in on close
+        channel.position(BinaryArrivalSource.HEADER_SIZE);
+    }
+
+    public void write(int time, int sourceFloor, int destinationFloor) throws IOException {
+        if (time < lastTime)
+            throw new IllegalArgumentException("Arrivals must be written in time order");
+        if (!buffer.hasRemaining())
+            flush();
+        buffer.putInt(time).putInt(sourceFloor).putInt(destinationFloor);
+        lastTime = time;
+        count++;
+    }
+
+    public long getCount() { return count; }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeHeader();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Copies every arrival from source to file and returns the number written.
+    public static long convert(ArrivalSource source, Path file) throws IOException {
+        try (BinaryArrivalWriter writer = new BinaryArrivalWriter(file)) {
+            while (source.advance())
+                writer.write(source.getTime(), source.getSourceFloor(), source.getDestinationFloor());
+            return writer.getCount();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BinaryArrivalSource.HEADER_SIZE);
+        header.putInt(BinaryArrivalSource.MAGIC).putInt(BinaryArrivalSource.VERSION).putLong(count).flip();
+        long at = 0;
+        while (header.hasRemaining())
+            at += channel.write(header, at);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: BinaryArrivalWriter <input.csv> <output.bin>");
+            return;
+        }
+        try (CsvArrivalSource source = new CsvArrivalSource(Paths.get(args[0]))) {
+            long count = convert(source, Paths.get(args[1]));
+            System.out.println("Wrote " + count + " arrivals to " + args[1]);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
@@ -2,14 +2,35 @@ package elevatorsim;
 
 public class BooleanSource {
     private double probability;
+    private final RandomSource random;
 
     public BooleanSource(double p) {
+        this(p, new RandomSource());
+    }
+
+    // Draws from the given stream, so runs sharing a seed produce the same arrivals.
+    public BooleanSource(double p, RandomSource random) {
         if (p < 0.0 || p > 1.0)
             throw new IllegalArgumentException("Probability must be between 0.0 and 1.0");
         probability = p;
+        this.random = random;
     }
 
+    public double getProbability() { return probability; }
+
     public boolean requestArrived() {
-        return Math.random() < probability;
+        return random.nextBoolean(probability);
+    }
+
+    // Flips count coins at once into arrived[0..count) and returns the number of arrivals.
+    public int requestsArrived(boolean[] arrived, int count) {
+        return random.fillArrivals(probability, arrived, count);
+    }
+
+    // Number of ticks until requestArrived() would next return true, counting the
+    // next tick as 1. Samples the geometric distribution directly instead of flipping
+    // one coin per tick; returns Integer.MAX_VALUE when no arrival will ever occur.
+    public int ticksUntilArrival() {
+        return random.nextGeometric(probability);
     }
 }
@@ -0,0 +1,17 @@
+package elevatorsim;
+
+/**
+ * Collective control: moving cars stop for every waiting call in their direction of
+ * travel, whether or not it was assigned to them. The dispatcher only wakes the
+ * nearest idle car for a new call; if all cars are busy the call is left for a
+ * passing car or the next car to go idle.
+ */
+public class CollectiveDispatcher implements Dispatcher {
+    @Override
+    public int selectCar(Elevator[] cars, int floors, int floor, int callDirection) {
+        return Dispatcher.nearestIdleCar(cars, floor);
+    }
+
+    @Override
+    public boolean isCollective() { return true; }
+}
@@ -0,0 +1,135 @@
+package elevatorsim;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams arrivals from a CSV file with lines of time,source,destination. Lines
+ * that start with a letter or '#' (such as a header row) and blank lines are
+ * skipped, and columns after the third are ignored. The file is parsed straight
+ * from a reusable byte buffer, so no String is created per line.
+ */
+public class CsvArrivalSource implements ArrivalSource {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean endOfFile;
+    private long line;
+    private int terminator; // byte that ended the last parsed field
+
+    private int time;
+    private int sourceFloor;
+    private int destinationFloor;
+
+    public CsvArrivalSource(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip(); // empty until the first read
+    }
+
+    @Override
+    public boolean advance() {
+        try {
+            while (true) {
+                int c = read();
+                if (c < 0)
+                    return false;
+                line++;
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r' && (c = read()) != '\n' && c >= 0)
+                        throw malformed();
+                    continue;
+                }
+                if (c == '#' || Character.isLetter(c)) {
+                    skipLine();
+                    continue;
+                }
+
+                int t = parseField(c);
+                expectComma();
+                int s = parseField(read());
+                expectComma();
+                int d = parseField(read());
+                if (terminator == ',')
+                    skipLine();
+                else if (terminator != '\n' && terminator >= 0)
+                    throw malformed();
+
+                if (t < time)
+                    throw new IllegalArgumentException(file + " line " + line + ": arrivals are out of time order");
+                time = t;
+                sourceFloor = s;
+                destinationFloor = d;
+                return true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override public int getTime() { return time; }
+    @Override public int getSourceFloor() { return sourceFloor; }
+    @Override public int getDestinationFloor() { return destinationFloor; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Parses one unsigned integer starting at byte c, allowing spaces around it.
+    private int parseField(int c) throws IOException {
+        while (c == ' ' || c == '\t')
+            c = read();
+        if (c < '0' || c > '9')
+            throw malformed();
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE)
+                throw malformed();
+            c = read();
+        }
+        while (c == ' ' || c == '\t' || c == '\r')
+            c = read();
+        terminator = c;
+        return (int) value;
+    }
+
+    private void expectComma() {
+        if (terminator != ',')
+            throw malformed();
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != '\n' && c >= 0);
+    }
+
+    // Next byte of the file, or -1 at the end.
+    private int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (endOfFile)
+                return -1;
+            buffer.clear();
+            int n = channel.read(buffer);
+            buffer.flip();
+            if (n <= 0) {
+                endOfFile = true;
+                return -1;
+            }
+        }
+        return buffer.get() & 0xff;
+    }
+
+    private IllegalArgumentException malformed() {
+        return new IllegalArgumentException(file + " line " + line + ": expected time,source,destination");
+    }
+}
@@ -0,0 +1,44 @@
+package elevatorsim;
+
+/**
+ * Strategy that decides which car of a bank answers a hall call. Implementations
+ * look only at the cars' current floor, direction and load, so each decision
+ * costs O(cars) no matter how many passengers are waiting.
+ */
+public interface Dispatcher {
+    // Picks the car that should answer the call at floor going in callDirection, or
+    // returns -1 to leave the call pending until a later tick.
+    int selectCar(Elevator[] cars, int floors, int floor, int callDirection);
+
+    // True when cars also stop for unassigned hall calls in their direction of travel.
+    default boolean isCollective() { return false; }
+
+    // Looks up a strategy by its command-line name.
+    static Dispatcher forName(String name) {
+        switch (name.toLowerCase()) {
+            case "fifo":       return new FifoDispatcher();
+            case "nearest":    return new NearestCarDispatcher();
+            case "look":
+            case "scan":       return new LookDispatcher();
+            case "collective": return new CollectiveDispatcher();
+            default:
+                throw new IllegalArgumentException("Unknown dispatcher: " + name +
+                        " (expected fifo, nearest, look or collective)");
+        }
+    }
+
+    // Index of the idle car closest to floor, or -1 when every car is busy.
+    static int nearestIdleCar(Elevator[] cars, int floor) {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < cars.length; i++) {
+            if (cars[i].getElevatorState() != Elevator.IDLE) continue;
+            int distance = Math.abs(cars[i].getCurrentFloor() - floor);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
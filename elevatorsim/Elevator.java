@@ -1,19 +1,88 @@
 package elevatorsim;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 public class Elevator {
     public static final int IDLE = 1;
     public static final int TO_SOURCE = 2;
     public static final int TO_DESTINATION = 3;
 
+    // Travel directions used by cars in a bank.
+    public static final int UP = 1;
+    public static final int DOWN = -1;
+
+    // Bytes written by writeTo().
+    public static final int SERIALIZED_SIZE = 25;
+
     private int currentFloor;
     private int elevatorState;
-    private Request request;
+
+    // The current request is held as primitives so assigning work never allocates.
+    private boolean hasRequest;
+    private int requestSourceFloor;
+    private int requestDestinationFloor;
+    private int requestTimeEntered;
+    private int requestPickupTime;
+
+    // Bank mode: a car carries up to capacity riders and answers hall calls.
+    private int direction;
+    private int capacity;
+    private int riderCount;
+    private int[] riderDestinations;
+    private int[] riderPickupTimes;
+    private BitSet carStops;
+    private BitSet assignedUp;
+    private BitSet assignedDown;
+
+    // Optional event trace, and this car's index in it.
+    private TraceLog trace;
+    private int traceCar;
 
     public Elevator() {
         currentFloor = 1;
         elevatorState = IDLE;
-        request = null;
+        hasRequest = false;
+    }
+
+    // Creates a car for use in a bank, driven by shift(int, HallCallIndex, boolean, SimStats).
+    public Elevator(int capacity) {
+        this();
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        riderDestinations = new int[capacity];
+        riderPickupTimes = new int[capacity];
+        carStops = new BitSet();
+        assignedUp = new BitSet();
+        assignedDown = new BitSet();
+    }
+
+    // Copies the single-car state (floor, state and current request) of another elevator.
+    public void copyStateFrom(Elevator other) {
+        currentFloor = other.currentFloor;
+        elevatorState = other.elevatorState;
+        hasRequest = other.hasRequest;
+        requestSourceFloor = other.requestSourceFloor;
+        requestDestinationFloor = other.requestDestinationFloor;
+        requestTimeEntered = other.requestTimeEntered;
+        requestPickupTime = other.requestPickupTime;
+    }
+
+    // Writes the single-car state; bank riders and calls are not included.
+    public void writeTo(ByteBuffer out) {
+        out.putInt(currentFloor).putInt(elevatorState).put((byte) (hasRequest ? 1 : 0))
+           .putInt(requestSourceFloor).putInt(requestDestinationFloor)
+           .putInt(requestTimeEntered).putInt(requestPickupTime);
+    }
+
+    public void readFrom(ByteBuffer in) {
+        currentFloor = in.getInt();
+        setElevatorState(in.getInt());
+        hasRequest = in.get() != 0;
+        requestSourceFloor = in.getInt();
+        requestDestinationFloor = in.getInt();
+        requestTimeEntered = in.getInt();
+        requestPickupTime = in.getInt();
     }
 
     public int getCurrentFloor() { return currentFloor; }
@@ -24,27 +93,222 @@ public class Elevator {
             throw new IllegalArgumentException("Invalid elevator state");
         elevatorState = state;
     }
-    public Request getRequest() { return request; }
-    public void setRequest(Request r) { request = r; }
+
+    public int getDirection() { return direction; }
+    public int getCapacity() { return capacity; }
+    public int getLoad() { return riderCount; }
+
+    public void setTraceLog(TraceLog trace, int car) {
+        this.trace = trace;
+        traceCar = car;
+    }
+
+    public boolean hasRequest() { return hasRequest; }
+    public int getRequestSourceFloor() { return requestSourceFloor; }
+    public int getRequestDestinationFloor() { return requestDestinationFloor; }
+    public int getRequestTimeEntered() { return requestTimeEntered; }
+
+    // Returns a copy of the current request, or null when there is none.
+    public Request getRequest() {
+        return hasRequest ? new Request(requestSourceFloor, requestDestinationFloor, requestTimeEntered) : null;
+    }
+
+    public void setRequest(Request r) {
+        if (r == null) {
+            hasRequest = false;
+        } else {
+            assign(r.getSourceFloor(), r.getDestinationFloor(), r.getTimeEntered());
+        }
+    }
+
+    // Sets the current request without creating a Request object.
+    public void assign(int sourceFloor, int destinationFloor, int timeEntered) {
+        hasRequest = true;
+        requestSourceFloor = sourceFloor;
+        requestDestinationFloor = destinationFloor;
+        requestTimeEntered = timeEntered;
+    }
+
+    // Takes the head of the queue as the current request and heads to its source floor.
+    public void assignFrom(RequestQueue queue) {
+        assign(queue.peekSourceFloor(), queue.peekDestinationFloor(), queue.peekTimeEntered());
+        queue.remove();
+        elevatorState = TO_SOURCE;
+    }
 
     // Moves the elevator one step toward its target floor.
-    public void shift(int currentTime, List<Integer> stats) {
-        if (request == null) return;
+    public void shift(int currentTime, SimStats stats) {
+        if (!hasRequest) return;
 
-        int targetFloor = (elevatorState == TO_SOURCE) ? request.getSourceFloor() :
-                           (elevatorState == TO_DESTINATION) ? request.getDestinationFloor() : currentFloor;
+        int targetFloor = (elevatorState == TO_SOURCE) ? requestSourceFloor :
+                           (elevatorState == TO_DESTINATION) ? requestDestinationFloor : currentFloor;
 
         if (currentFloor == targetFloor) {
             if (elevatorState == TO_SOURCE) {
                 elevatorState = TO_DESTINATION;
-                stats.set(0, stats.get(0) + (currentTime - request.getTimeEntered()));
-                stats.set(1, stats.get(1) + 1);
+                requestPickupTime = currentTime;
+                stats.recordWait(currentTime - requestTimeEntered);
+                if (trace != null)
+                    trace.pickup(currentTime, traceCar, currentFloor, currentTime - requestTimeEntered);
             } else { // Arrived at destination
-                request = null;
+                stats.recordRide(currentTime - requestPickupTime);
+                if (trace != null)
+                    trace.dropoff(currentTime, traceCar, currentFloor, currentTime - requestPickupTime);
+                hasRequest = false;
                 elevatorState = IDLE;
             }
         } else {
             currentFloor += (currentFloor < targetFloor) ? 1 : -1;
         }
     }
+
+    // Commits this car to the hall call at floor in the given direction.
+    public void assignCall(int floor, int callDirection) {
+        assigned(callDirection).set(floor);
+        if (elevatorState == IDLE)
+            elevatorState = TO_SOURCE;
+    }
+
+    public boolean hasAssignedCall(int floor, int callDirection) {
+        return assigned(callDirection).get(floor);
+    }
+
+    // Bank-mode step. Drops off riders at this floor and boards waiting passengers, either
+    // from calls assigned to this car or, under collective control, from any call in the
+    // direction of travel. Otherwise moves one floor following the LOOK rule: keep going
+    // while there is work ahead, then reverse. Returns the number of riders delivered.
+    public int shift(int currentTime, HallCallIndex halls, boolean collective, SimStats stats) {
+        int delivered = carStops.get(currentFloor) ? dropOff(currentTime, stats) : 0;
+        int boarded = board(currentTime, halls, collective, stats);
+        if (delivered == 0 && boarded == 0)
+            move(halls, collective);
+
+        if (riderCount > 0)
+            elevatorState = TO_DESTINATION;
+        else if (!assignedUp.isEmpty() || !assignedDown.isEmpty() || direction != 0)
+            elevatorState = TO_SOURCE;
+        else
+            elevatorState = IDLE;
+        return delivered;
+    }
+
+    private int dropOff(int currentTime, SimStats stats) {
+        int delivered = 0;
+        for (int i = riderCount - 1; i >= 0; i--) {
+            if (riderDestinations[i] == currentFloor) {
+                stats.recordRide(currentTime - riderPickupTimes[i]);
+                if (trace != null)
+                    trace.dropoff(currentTime, traceCar, currentFloor, currentTime - riderPickupTimes[i]);
+                riderCount--;
+                riderDestinations[i] = riderDestinations[riderCount];
+                riderPickupTimes[i] = riderPickupTimes[riderCount];
+                delivered++;
+            }
+        }
+        carStops.clear(currentFloor);
+        return delivered;
+    }
+
+    private int board(int currentTime, HallCallIndex halls, boolean collective, SimStats stats) {
+        int callDirection = boardingDirection(halls, collective);
+        if (callDirection == 0)
+            return 0;
+
+        direction = callDirection;
+        RequestQueue waiting = halls.queue(currentFloor, callDirection);
+        int boarded = 0;
+        while (!waiting.isEmpty() && riderCount < capacity) {
+            int destination = waiting.peekDestinationFloor();
+            int timeEntered = waiting.peekTimeEntered();
+            halls.removeHead(currentFloor, callDirection);
+            riderDestinations[riderCount] = destination;
+            riderPickupTimes[riderCount] = currentTime;
+            riderCount++;
+            carStops.set(destination);
+            stats.recordWait(currentTime - timeEntered);
+            if (trace != null)
+                trace.pickup(currentTime, traceCar, currentFloor, currentTime - timeEntered);
+            boarded++;
+        }
+
+        // This car has answered the call; anyone left behind needs another car.
+        if (assigned(callDirection).get(currentFloor)) {
+            assigned(callDirection).clear(currentFloor);
+            halls.setAssignedCar(currentFloor, callDirection, -1);
+        }
+        if (!waiting.isEmpty() && halls.getAssignedCar(currentFloor, callDirection) < 0)
+            halls.addPending(currentFloor, callDirection);
+        return boarded;
+    }
+
+    // Direction of the call to board at this floor, or 0 when the car should not stop.
+    private int boardingDirection(HallCallIndex halls, boolean collective) {
+        releaseAnsweredCall(halls, UP);
+        releaseAnsweredCall(halls, DOWN);
+        if (riderCount == capacity)
+            return 0;
+        if (direction == 0) {
+            if (canBoard(halls, UP, collective)) return UP;
+            if (canBoard(halls, DOWN, collective)) return DOWN;
+            return 0;
+        }
+        if (canBoard(halls, direction, collective))
+            return direction;
+        // Turn around here only if nothing is left ahead and nobody on board is going that way.
+        if (riderCount == 0 && !hasWorkBeyond(halls, collective, direction) && canBoard(halls, -direction, collective))
+            return -direction;
+        return 0;
+    }
+
+    private boolean canBoard(HallCallIndex halls, int callDirection, boolean collective) {
+        if (!halls.hasCall(currentFloor, callDirection))
+            return false;
+        return assigned(callDirection).get(currentFloor)
+                || (collective && (direction == 0 || direction == callDirection));
+    }
+
+    // Drops an assignment at this floor whose passengers another car has already picked up.
+    private void releaseAnsweredCall(HallCallIndex halls, int callDirection) {
+        if (assigned(callDirection).get(currentFloor) && !halls.hasCall(currentFloor, callDirection)) {
+            assigned(callDirection).clear(currentFloor);
+            halls.setAssignedCar(currentFloor, callDirection, -1);
+        }
+    }
+
+    private void move(HallCallIndex halls, boolean collective) {
+        if (direction == 0) {
+            if (hasWorkBeyond(halls, collective, UP)) direction = UP;
+            else if (hasWorkBeyond(halls, collective, DOWN)) direction = DOWN;
+            else return;
+        } else if (!hasWorkBeyond(halls, collective, direction)) {
+            if (!hasWorkBeyond(halls, collective, -direction)) {
+                direction = 0;
+                return;
+            }
+            direction = -direction;
+        }
+        currentFloor += direction;
+    }
+
+    // Whether any rider stop, assigned call or (collective) same-direction hall call lies
+    // strictly beyond the current floor in the given direction.
+    private boolean hasWorkBeyond(HallCallIndex halls, boolean collective, int searchDirection) {
+        if (searchDirection == UP) {
+            if (carStops.nextSetBit(currentFloor + 1) >= 0
+                    || assignedUp.nextSetBit(currentFloor + 1) >= 0
+                    || assignedDown.nextSetBit(currentFloor + 1) >= 0)
+                return true;
+        } else {
+            if (carStops.previousSetBit(currentFloor - 1) >= 0
+                    || assignedUp.previousSetBit(currentFloor - 1) >= 0
+                    || assignedDown.previousSetBit(currentFloor - 1) >= 0)
+                return true;
+        }
+        return collective && direction == searchDirection
+                && halls.nextCall(currentFloor, searchDirection, searchDirection) >= 0;
+    }
+
+    private BitSet assigned(int callDirection) {
+        return (callDirection == UP) ? assignedUp : assignedDown;
+    }
 }
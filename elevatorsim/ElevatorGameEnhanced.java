@@ -1,54 +1,69 @@
 package elevatorsim;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
-import javafx.scene.effect.DropShadow;
 import javafx.scene.layout.*;
 import javafx.scene.media.AudioClip;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.*;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import javafx.util.Duration;
-
-import java.util.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+/**
+ * JavaFX front end for the elevator simulation. The model runs in a
+ * SimulationRunner on its own thread; this class only renders the runner's
+ * latest snapshot, at most once per frame, and forwards the controls to the
+ * runner as commands.
+ *
+ * The building is drawn on a single Canvas the size of the visible viewport,
+ * showing only the floors scrolled into view with one marker and count per
+ * floor, so neither the number of floors nor the backlog adds scene-graph
+ * nodes. Pass --floors=N to simulate a taller building than the default.
+ */
 public class ElevatorGameEnhanced extends Application {
     // Configuration constants
-    private static final int NUM_FLOORS = 10;
+    private static final int DEFAULT_FLOORS = 10;
     private static final int FLOOR_HEIGHT = 50;
+    private static final int COMPACT_FLOOR_HEIGHT = 20; // used once the building outgrows the view
+    private static final int VIEW_HEIGHT = 500;
     private static final int BUILDING_WIDTH = 300;
     private static final int ELEVATOR_WIDTH = 40;
-    private static final int ELEVATOR_HEIGHT = FLOOR_HEIGHT - 10;
+    private static final double MIN_SPEED = 0.5;
+    private static final double MAX_SPEED = 10_000;
+
+    private int numFloors;
+    private int floorHeight;
 
-    private Pane simulationPane;
-    private Rectangle elevatorRect;
+    private Canvas buildingCanvas;
+    private ScrollBar floorScrollBar;
     private Text statusText;
+    private Label messageLabel;
     
     // Control panel UI elements
     private Slider requestProbSlider;
     private Slider simSpeedSlider;
+    private Label speedValueLabel;
+    private CheckBox unthrottledBox;
     private TextField overrideField;
     private Button overrideButton;
     private Button cancelRequestButton;
     
-    // Simulation objects
-    private RequestQueue requestQueue;
-    private BooleanSource requestProb;
-    private Elevator elevator;
-    private int currentTime;
-    private List<Integer> stats; // stats[0]: total wait time, stats[1]: served request count
+    // Simulation model, owned by the runner thread once started
+    private HeadlessSimulation simulation;
+    private SimulationRunner runner;
+    private ObjectName monitorName; // live statistics in JConsole
 
-    // Graphical representations for requests
-    private List<Circle> requestCircles;
-    
-    // Timeline for simulation ticks
-    private Timeline timeline;
+    // Renders the latest snapshot once per frame
+    private AnimationTimer renderer;
+    private SimulationSnapshot rendered;
+    private double renderedScroll = -1;
     
     // Sound effects
     private AudioClip beepSound;
@@ -62,45 +77,37 @@ public class ElevatorGameEnhanced extends Application {
             System.out.println("Sound file not found. Sound effects disabled.");
             beepSound = null;
         }
+
+        numFloors = parseFloors(getParameters().getNamed().get("floors"));
+        floorHeight = (numFloors * FLOOR_HEIGHT <= VIEW_HEIGHT) ? FLOOR_HEIGHT : COMPACT_FLOOR_HEIGHT;
+        int viewHeight = Math.min(numFloors * floorHeight, VIEW_HEIGHT);
         
-        // Create simulation pane (graphical representation of the building)
-        simulationPane = new Pane();
-        simulationPane.setPrefSize(BUILDING_WIDTH, NUM_FLOORS * FLOOR_HEIGHT + 40);
-        simulationPane.setStyle("-fx-background-color: linear-gradient(to bottom, #f0f8ff, #d3d3d3);");
-        
-        // Draw floors and labels
-        for (int i = 0; i <= NUM_FLOORS; i++) {
-            Line line = new Line(0, i * FLOOR_HEIGHT, BUILDING_WIDTH, i * FLOOR_HEIGHT);
-            line.setStroke(Color.GRAY);
-            simulationPane.getChildren().add(line);
-            
-            int floorNum = NUM_FLOORS - i + 1;
-            Text floorLabel = new Text(5, i * FLOOR_HEIGHT - 5, "Floor " + floorNum);
-            floorLabel.setFill(Color.DARKBLUE);
-            simulationPane.getChildren().add(floorLabel);
-        }
+        // Create the building canvas, with a scroll bar when not every floor fits
+        buildingCanvas = new Canvas(BUILDING_WIDTH, viewHeight);
+        floorScrollBar = new ScrollBar();
+        floorScrollBar.setOrientation(Orientation.VERTICAL);
+        floorScrollBar.setMin(0);
+        floorScrollBar.setMax(Math.max(0, numFloors * floorHeight - viewHeight));
+        floorScrollBar.setVisibleAmount(viewHeight);
+        floorScrollBar.setUnitIncrement(floorHeight);
+        floorScrollBar.setVisible(numFloors * floorHeight > viewHeight);
         
         // Initialize simulation variables
-        requestQueue = new RequestQueue();
-        requestProb = new BooleanSource(0.3); // initial probability
-        elevator = new Elevator();
-        currentTime = 0;
-        stats = new ArrayList<>(Arrays.asList(0, 0));
-        requestCircles = new ArrayList<>();
-        
-        // Create elevator graphic (a blue rectangle with a drop shadow)
-        elevatorRect = new Rectangle(ELEVATOR_WIDTH, ELEVATOR_HEIGHT, Color.BLUE);
-        elevatorRect.setX(50);
-        DropShadow ds = new DropShadow();
-        ds.setOffsetY(3.0);
-        ds.setColor(Color.GRAY);
-        elevatorRect.setEffect(ds);
-        updateElevatorGraphic();
-        simulationPane.getChildren().add(elevatorRect);
+        simulation = new HeadlessSimulation(numFloors, 0.3); // initial probability
+        runner = new SimulationRunner(simulation);
+        SimulationMonitor monitor = new SimulationMonitor();
+        try {
+            monitorName = monitor.register("game");
+            runner.setMonitor(monitor);
+        } catch (JMException e) {
+            System.out.println("JMX monitoring unavailable: " + e.getMessage());
+        }
         
         // Status text to show simulation info
-        statusText = new Text(10, NUM_FLOORS * FLOOR_HEIGHT + 20, "");
-        simulationPane.getChildren().add(statusText);
+        statusText = new Text("");
+        VBox simulationPane = new VBox(5, new HBox(buildingCanvas, floorScrollBar), statusText);
+        simulationPane.setPadding(new Insets(0, 0, 10, 10));
+        simulationPane.setStyle("-fx-background-color: linear-gradient(to bottom, #f0f8ff, #d3d3d3);");
         
         // Create a control panel with sliders and override buttons
         VBox controlPanel = new VBox(10);
@@ -115,171 +122,202 @@ public class ElevatorGameEnhanced extends Application {
         requestProbSlider.setShowTickMarks(true);
         requestProbSlider.setMajorTickUnit(0.1);
         requestProbSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            requestProb = new BooleanSource(newVal.doubleValue());
+            double p = newVal.doubleValue();
+            runner.submit(sim -> sim.setProbability(p));
         });
         
-        // Slider for simulation speed (adjusts timeline rate)
+        // Slider for simulation speed on a log scale, from 0.5x to 10,000x real time
         Label speedLabel = new Label("Simulation Speed:");
-        simSpeedSlider = new Slider(0.5, 2.0, 1.0);
-        simSpeedSlider.setShowTickLabels(true);
+        simSpeedSlider = new Slider(Math.log10(MIN_SPEED), Math.log10(MAX_SPEED), 0.0);
         simSpeedSlider.setShowTickMarks(true);
-        simSpeedSlider.setMajorTickUnit(0.5);
+        simSpeedSlider.setMajorTickUnit(1.0);
+        speedValueLabel = new Label(formatSpeed(1.0));
         simSpeedSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (timeline != null) {
-                timeline.setRate(newVal.doubleValue());
-            }
+            double speed = Math.pow(10, newVal.doubleValue());
+            runner.setTicksPerSecond(speed);
+            speedValueLabel.setText(formatSpeed(speed));
+        });
+        unthrottledBox = new CheckBox("Unthrottled");
+        unthrottledBox.selectedProperty().addListener((obs, oldVal, newVal) -> {
+            runner.setUnthrottled(newVal);
+            simSpeedSlider.setDisable(newVal);
         });
         
         // Override controls: set elevator floor manually
         Label overrideLabel = new Label("Override Elevator Floor:");
         overrideField = new TextField();
-        overrideField.setPromptText("Enter floor (1-" + NUM_FLOORS + ")");
+        overrideField.setPromptText("Enter floor (1-" + numFloors + ")");
         overrideButton = new Button("Set Floor");
         overrideButton.setOnAction(e -> overrideElevatorFloor());
         
         // Button to cancel the current elevator request
         cancelRequestButton = new Button("Cancel Current Request");
         cancelRequestButton.setOnAction(e -> cancelCurrentRequest());
+
+        // Feedback from the controls, kept apart from the per-frame status text
+        messageLabel = new Label();
+        messageLabel.setWrapText(true);
         
         controlPanel.getChildren().addAll(probLabel, requestProbSlider,
-                                          speedLabel, simSpeedSlider,
+                                          speedLabel, simSpeedSlider, speedValueLabel, unthrottledBox,
                                           overrideLabel, overrideField, overrideButton,
-                                          cancelRequestButton);
+                                          cancelRequestButton, messageLabel);
         
         // Layout the scene with the simulation pane in the center and control panel on the right.
         BorderPane root = new BorderPane();
         root.setCenter(simulationPane);
         root.setRight(controlPanel);
         
-        Scene scene = new Scene(root, BUILDING_WIDTH + 250, NUM_FLOORS * FLOOR_HEIGHT + 40);
+        Scene scene = new Scene(root, BUILDING_WIDTH + 280, Math.max(viewHeight + 60, 460));
         primaryStage.setScene(scene);
         primaryStage.setTitle("Elevator Simulator Game - Enhanced");
         primaryStage.show();
         
-        // Start the simulation timeline (ticks every 1 second)
-        timeline = new Timeline(new KeyFrame(Duration.seconds(1), e -> gameTick()));
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
-    }
-    
-    // Simulation tick method called every second
-    private void gameTick() {
-        currentTime++;
-        
-        // Generate a new request based on probability
-        if (requestProb.requestArrived()) {
-            Request newRequest = new Request(NUM_FLOORS);
-            newRequest.setTimeEntered(currentTime);
-            requestQueue.enqueue(newRequest);
-            addRequestGraphic(newRequest);
-            if (beepSound != null) {
-                beepSound.play();
-            }
-            System.out.println("Tick " + currentTime + ": Request from Floor " +
-                               newRequest.getSourceFloor() + " to Floor " + newRequest.getDestinationFloor());
-        } else {
-            System.out.println("Tick " + currentTime + ": No new request.");
-        }
-        
-        // If elevator is idle and there is a request, assign it.
-        if (elevator.getElevatorState() == Elevator.IDLE && !requestQueue.isEmpty()) {
-            Request req = requestQueue.dequeue();
-            removeRequestGraphic(req);
-            elevator.setRequest(req);
-            elevator.setElevatorState(Elevator.TO_SOURCE);
-        }
-        
-        // Move the elevator one step.
-        elevator.shift(currentTime, stats);
-        updateElevatorGraphic();
-        updateStatusText();
-        
-        // Play a sound when the elevator arrives at its target (if idle)
-        if (elevator.getElevatorState() == Elevator.IDLE && elevator.getRequest() == null) {
-            if (beepSound != null) {
-                beepSound.play();
+        // Start the simulation thread (one tick per second at 1x) and the frame renderer
+        renderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                render(runner.getLatestSnapshot());
             }
-        }
-    }
-    
-    // Update the graphical position of the elevator rectangle.
-    private void updateElevatorGraphic() {
-        int currentFloor = elevator.getCurrentFloor();
-        double y = (NUM_FLOORS - currentFloor) * FLOOR_HEIGHT + 5;
-        elevatorRect.setY(y);
+        };
+        renderer.start();
+        runner.start();
     }
-    
-    // Update the status text with current simulation info.
-    private void updateStatusText() {
-        double avgWait = (stats.get(1) > 0) ? (double)stats.get(0) / stats.get(1) : 0.0;
-        statusText.setText("Time: " + currentTime + " sec | Floor: " + elevator.getCurrentFloor() +
-                           " | Queue: " + requestQueue.size() +
-                           " | Avg Wait: " + String.format("%.2f", avgWait) + " sec");
+
+    @Override
+    public void stop() {
+        if (renderer != null) renderer.stop();
+        if (runner != null) runner.stop();
+        if (monitorName != null) SimulationMonitor.unregister(monitorName);
     }
     
-    // Add a red circle graphic representing a new request.
-    private void addRequestGraphic(Request r) {
-        int floor = r.getSourceFloor();
-        double y = (NUM_FLOORS - floor) * FLOOR_HEIGHT + FLOOR_HEIGHT / 2.0;
-        Circle circle = new Circle(10, Color.RED);
-        circle.setCenterX(BUILDING_WIDTH - 30);
-        circle.setCenterY(y);
-        circle.setUserData(r);
-        requestCircles.add(circle);
-        simulationPane.getChildren().add(circle);
+    // Draws a snapshot if it, or the scroll position, changed since the last frame.
+    private void render(SimulationSnapshot snapshot) {
+        double scroll = floorScrollBar.getValue();
+        if (snapshot == rendered && scroll == renderedScroll)
+            return;
+        boolean arrived = rendered != null && snapshot.getArrivals() != rendered.getArrivals();
+        boolean delivered = rendered != null && snapshot.getDeliveredCount() != rendered.getDeliveredCount();
+        rendered = snapshot;
+        renderedScroll = scroll;
+
+        drawBuilding(snapshot, scroll);
+        updateStatusText(snapshot);
+
+        // At most one beep per frame, for a new request or a completed trip
+        if ((arrived || delivered) && beepSound != null) {
+            beepSound.play();
+        }
     }
-    
-    // Remove the request graphic once it is fulfilled.
-    private void removeRequestGraphic(Request r) {
-        Circle toRemove = null;
-        for (Circle circle : requestCircles) {
-            Request req = (Request) circle.getUserData();
-            if (req == r) {
-                toRemove = circle;
-                break;
+
+    // Redraws the floors in view: floor lines and labels, the elevator, and one
+    // marker per floor with the number of requests waiting there.
+    private void drawBuilding(SimulationSnapshot s, double scroll) {
+        GraphicsContext g = buildingCanvas.getGraphicsContext2D();
+        double width = buildingCanvas.getWidth();
+        double height = buildingCanvas.getHeight();
+        g.clearRect(0, 0, width, height);
+
+        // Floor f occupies [top(f), top(f) + floorHeight) in building coordinates.
+        int firstRow = (int) (scroll / floorHeight);
+        int lastRow = Math.min(numFloors - 1, (int) ((scroll + height) / floorHeight));
+        double radius = Math.min(10, floorHeight / 2.0 - 2);
+        for (int row = firstRow; row <= lastRow; row++) {
+            int floor = numFloors - row;
+            double top = row * floorHeight - scroll;
+
+            g.setStroke(Color.GRAY);
+            g.strokeLine(0, top + floorHeight, width, top + floorHeight);
+            g.setFill(Color.DARKBLUE);
+            g.fillText("Floor " + floor, 5, top + floorHeight - 5);
+
+            int waiting = s.getWaitingAt(floor);
+            if (waiting > 0) {
+                double centerY = top + floorHeight / 2.0;
+                g.setFill(Color.RED);
+                g.fillOval(width - 30 - radius, centerY - radius, 2 * radius, 2 * radius);
+                if (waiting > 1) {
+                    g.setFill(Color.BLACK);
+                    g.fillText(Integer.toString(waiting), width - 30 + radius + 3, centerY + 4);
+                }
             }
         }
-        if (toRemove != null) {
-            requestCircles.remove(toRemove);
-            simulationPane.getChildren().remove(toRemove);
+
+        double elevatorTop = (numFloors - s.getElevatorFloor()) * floorHeight - scroll;
+        if (elevatorTop + floorHeight >= 0 && elevatorTop <= height) {
+            g.setFill(Color.GRAY);
+            g.fillRect(52, elevatorTop + 8, ELEVATOR_WIDTH, floorHeight - 10);
+            g.setFill(Color.BLUE);
+            g.fillRect(50, elevatorTop + 5, ELEVATOR_WIDTH, floorHeight - 10);
         }
     }
     
+    // Update the status text with current simulation info.
+    private void updateStatusText(SimulationSnapshot s) {
+        statusText.setText("Time: " + s.getCurrentTime() + " sec | Floor: " + s.getElevatorFloor() +
+                           " | Queue: " + s.getQueueSize() +
+                           " | Avg Wait: " + String.format("%.2f", s.getAverageWait()) + " sec" +
+                           "\nWait p50/p90/p99/max: " + s.getWaitP50() + "/" + s.getWaitP90() + "/" +
+                           s.getWaitP99() + "/" + s.getWaitMax() + " sec" +
+                           " | " + String.format("%.0f", s.getTicksPerSecond()) + " ticks/s");
+    }
+    
     // Player override: set elevator floor manually.
     private void overrideElevatorFloor() {
         String input = overrideField.getText().trim();
         try {
             int floor = Integer.parseInt(input);
-            if (floor < 1 || floor > NUM_FLOORS) {
-                statusText.setText("Invalid floor. Enter 1-" + NUM_FLOORS);
+            if (floor < 1 || floor > numFloors) {
+                messageLabel.setText("Invalid floor. Enter 1-" + numFloors);
                 return;
             }
-            elevator.setCurrentFloor(floor);
-            elevator.setElevatorState(Elevator.IDLE);
-            elevator.setRequest(null);
-            updateElevatorGraphic();
-            statusText.setText("Elevator floor overridden to " + floor);
+            runner.submit(sim -> {
+                Elevator elevator = sim.getElevator();
+                elevator.setCurrentFloor(floor);
+                elevator.setElevatorState(Elevator.IDLE);
+                elevator.setRequest(null);
+            });
+            messageLabel.setText("Elevator floor overridden to " + floor);
             if (beepSound != null) {
                 beepSound.play();
             }
         } catch (NumberFormatException e) {
-            statusText.setText("Invalid input. Enter a valid floor number.");
+            messageLabel.setText("Invalid input. Enter a valid floor number.");
         }
     }
     
     // Cancel the current elevator request.
     private void cancelCurrentRequest() {
-        if (elevator.getRequest() != null) {
-            elevator.setRequest(null);
-            elevator.setElevatorState(Elevator.IDLE);
-            statusText.setText("Current elevator request canceled.");
+        if (rendered != null && rendered.getElevatorState() != Elevator.IDLE) {
+            runner.submit(sim -> {
+                Elevator elevator = sim.getElevator();
+                elevator.setRequest(null);
+                elevator.setElevatorState(Elevator.IDLE);
+            });
+            messageLabel.setText("Current elevator request canceled.");
             if (beepSound != null) {
                 beepSound.play();
             }
         } else {
-            statusText.setText("No active elevator request to cancel.");
+            messageLabel.setText("No active elevator request to cancel.");
         }
     }
+
+    // Reads the --floors parameter, falling back to the default building.
+    private static int parseFloors(String value) {
+        if (value == null)
+            return DEFAULT_FLOORS;
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid --floors value; using " + DEFAULT_FLOORS + " floors.");
+            return DEFAULT_FLOORS;
+        }
+    }
+
+    private static String formatSpeed(double speed) {
+        return (speed < 10) ? String.format("%.1fx", speed) : String.format("%,.0fx", speed);
+    }
     
     public static void main(String[] args) {
         launch(args);
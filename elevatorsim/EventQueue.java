@@ -0,0 +1,53 @@
+package elevatorsim;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min-heap of primitive long keys used as the future event list of the
+ * event-driven engine. Keys are compared numerically, so callers pack the event
+ * time into the high bits and a tie-breaking kind into the low bits.
+ */
+public class EventQueue {
+    private long[] heap = new long[16];
+    private int size;
+
+    public boolean isEmpty() { return size == 0; }
+    public int size() { return size; }
+    public void clear() { size = 0; }
+
+    public void add(long key) {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size * 2);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    public long peek() {
+        if (size == 0)
+            throw new NoSuchElementException("Event queue is empty");
+        return heap[0];
+    }
+
+    public long poll() {
+        long top = peek();
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (last <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+}
@@ -0,0 +1,210 @@
+package elevatorsim;
+
+/**
+ * Discrete-event version of HeadlessSimulation. Instead of visiting every tick it
+ * samples the next arrival time directly from the BooleanSource and jumps the clock
+ * between arrivals and elevator floor events, so the cost of a run grows with the
+ * number of events rather than the number of ticks.
+ *
+ * Events that share a tick are processed in the same order gameTick() uses:
+ * arrival, assignment, then the elevator step. That keeps the wait and throughput
+ * statistics equivalent to tick mode. Arrivals replayed from an ArrivalSource
+ * are scheduled at their recorded ticks, so sparse logs replay in time
+ * proportional to their length.
+ */
+public class EventSimulation implements Simulation {
+    // Event kinds, in the order they must run within a single tick.
+    private static final int ARRIVAL = 0;
+    private static final int DISPATCH = 1;
+    private static final int PICKUP = 2;
+    private static final int DROPOFF = 3;
+
+    private final int floors;
+    private final RandomSource random;
+    private final RequestQueue requestQueue;
+    private final BooleanSource requestProb;
+    private final Elevator elevator;
+    private final EventQueue events;
+    private final SimStats stats = new SimStats();
+    private TraceLog trace;
+    private final ArrivalSource replay;
+    private boolean replayReady;
+    private int currentTime;
+    private int depthRecordedUntil; // last tick whose end-of-tick queue depth is in stats
+    private boolean dispatchScheduled;
+    private int pickupTime;
+    private int dispatchTime;
+    private long busyTicks; // completed trips only; see getBusyTicks()
+
+    private long arrivals;
+    private int maxQueueSize;
+
+    public EventSimulation(int floors, double probability) {
+        this(floors, probability, new RandomSource());
+    }
+
+    public EventSimulation(int floors, double probability, long seed) {
+        this(floors, probability, new RandomSource(seed));
+    }
+
+    public EventSimulation(int floors, double probability, RandomSource random) {
+        if (floors < 1)
+            throw new IllegalArgumentException("Building must have at least one floor");
+        this.floors = floors;
+        this.random = random;
+        requestQueue = new RequestQueue();
+        requestProb = new BooleanSource(probability, random);
+        elevator = new Elevator();
+        events = new EventQueue();
+        currentTime = 0;
+        replay = null;
+        scheduleNextArrival(0);
+    }
+
+    // Replays recorded arrivals instead of generating them. The caller closes the source.
+    public EventSimulation(int floors, ArrivalSource replay) {
+        if (floors < 1)
+            throw new IllegalArgumentException("Building must have at least one floor");
+        this.floors = floors;
+        this.replay = replay;
+        random = new RandomSource();
+        requestQueue = new RequestQueue();
+        requestProb = new BooleanSource(0.0, random);
+        elevator = new Elevator();
+        events = new EventQueue();
+        currentTime = 0;
+        replayReady = replay.advance();
+        scheduleNextArrival(0);
+    }
+
+    @Override
+    public void run(int ticks) {
+        long horizon = Math.min((long) currentTime + ticks, Integer.MAX_VALUE);
+        while (!events.isEmpty() && eventTime(events.peek()) <= horizon) {
+            long event = events.poll();
+            int time = (int) eventTime(event);
+            recordQueueDepthUntil(time - 1);
+            switch ((int) (event & 3)) {
+                case ARRIVAL:  onArrival(time);  break;
+                case DISPATCH: onDispatch(time); break;
+                case PICKUP:   onPickup(time);   break;
+                case DROPOFF:  onDropoff(time);  break;
+            }
+        }
+        currentTime = (int) horizon;
+        recordQueueDepthUntil(currentTime);
+    }
+
+    // The queue only changes at events, so every tick since the last one recorded
+    // ended with the current depth; record it once, weighted by the tick count.
+    private void recordQueueDepthUntil(int time) {
+        if (time > depthRecordedUntil) {
+            stats.recordQueueDepth(requestQueue.size(), time - depthRecordedUntil);
+            depthRecordedUntil = time;
+        }
+    }
+
+    private void onArrival(int time) {
+        if (replay == null) {
+            arrive(time, random.nextFloor(floors), random.nextFloor(floors));
+        } else {
+            while (replayReady && replay.getTime() <= time) {
+                ArrivalSource.checkFloors(replay, floors);
+                arrive(time, replay.getSourceFloor(), replay.getDestinationFloor());
+                replayReady = replay.advance();
+            }
+        }
+
+        // An idle elevator takes the request in the same tick it arrives.
+        if (elevator.getElevatorState() == Elevator.IDLE && !dispatchScheduled)
+            schedule(time, DISPATCH);
+        scheduleNextArrival(time);
+    }
+
+    private void arrive(int time, int source, int destination) {
+        requestQueue.enqueue(source, destination, time);
+        if (trace != null)
+            trace.arrival(time, source, destination);
+        arrivals++;
+        if (requestQueue.size() > maxQueueSize)
+            maxQueueSize = requestQueue.size();
+    }
+
+    private void onDispatch(int time) {
+        dispatchScheduled = false;
+        if (requestQueue.isEmpty())
+            return;
+        elevator.assignFrom(requestQueue);
+        dispatchTime = time;
+        if (trace != null)
+            trace.assign(time, 0, elevator.getRequestSourceFloor(), elevator.getRequestDestinationFloor());
+        // shift() moves one floor per tick and picks up on the tick it finds itself at the source.
+        schedule((long) time + Math.abs(elevator.getCurrentFloor() - elevator.getRequestSourceFloor()), PICKUP);
+    }
+
+    private void onPickup(int time) {
+        int source = elevator.getRequestSourceFloor();
+        int destination = elevator.getRequestDestinationFloor();
+        elevator.setCurrentFloor(source);
+        elevator.setElevatorState(Elevator.TO_DESTINATION);
+        stats.recordWait(time - elevator.getRequestTimeEntered());
+        if (trace != null)
+            trace.pickup(time, 0, source, time - elevator.getRequestTimeEntered());
+        pickupTime = time;
+        // Travel to the destination, plus the tick on which shift() notices it has arrived.
+        schedule((long) time + Math.abs(source - destination) + 1, DROPOFF);
+    }
+
+    private void onDropoff(int time) {
+        int destination = elevator.getRequestDestinationFloor();
+        elevator.setCurrentFloor(destination);
+        elevator.setRequest(null);
+        elevator.setElevatorState(Elevator.IDLE);
+        stats.recordRide(time - pickupTime);
+        busyTicks += time - dispatchTime; // tick mode sees the car busy from dispatch until the drop-off tick
+        if (trace != null)
+            trace.dropoff(time, 0, destination, time - pickupTime);
+        // Tick mode only checks for work at the start of the following tick.
+        schedule((long) time + 1, DISPATCH);
+    }
+
+    private void scheduleNextArrival(int time) {
+        if (replay != null) {
+            // Arrivals stamped at or before the clock join on the next tick, as in tick mode.
+            if (replayReady)
+                schedule(Math.max(replay.getTime(), time + 1L), ARRIVAL);
+            return;
+        }
+        int gap = requestProb.ticksUntilArrival();
+        if (gap != Integer.MAX_VALUE)
+            schedule((long) time + gap, ARRIVAL);
+    }
+
+    private void schedule(long time, int kind) {
+        if (time > Integer.MAX_VALUE)
+            return; // beyond the representable clock, so it can never be reached
+        if (kind == DISPATCH)
+            dispatchScheduled = true;
+        events.add((time << 2) | kind);
+    }
+
+    private static long eventTime(long event) {
+        return event >>> 2;
+    }
+
+    @Override public int getFloors() { return floors; }
+    @Override public int getCurrentTime() { return currentTime; }
+    @Override public int getQueueSize() { return requestQueue.size(); }
+    @Override public int getMaxQueueSize() { return maxQueueSize; }
+    @Override public long getArrivals() { return arrivals; }
+
+    @Override
+    public long getBusyTicks() {
+        return busyTicks + (elevator.hasRequest() ? currentTime - dispatchTime + 1 : 0);
+    }
+
+    @Override public SimStats getStats() { return stats; }
+    @Override public void setTraceLog(TraceLog trace) { this.trace = trace; }
+
+    public Elevator getElevator() { return elevator; }
+}
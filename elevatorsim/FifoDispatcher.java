@@ -0,0 +1,13 @@
+package elevatorsim;
+
+/**
+ * Serves hall calls strictly in the order they were made: the oldest call waits
+ * until a car is idle and then goes to the nearest idle car. With one car this is
+ * the behavior of the original single-elevator game.
+ */
+public class FifoDispatcher implements Dispatcher {
+    @Override
+    public int selectCar(Elevator[] cars, int floors, int floor, int callDirection) {
+        return Dispatcher.nearestIdleCar(cars, floor);
+    }
+}
@@ -0,0 +1,145 @@
+package elevatorsim;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Pending hall calls of an elevator bank, indexed by floor and direction. Each
+ * (floor, direction) pair has its own FIFO of waiting passengers and a bit in a
+ * BitSet, so cars can find the next call ahead of them without scanning every
+ * passenger. Calls that still need a car are also kept in registration order so
+ * the dispatcher can assign them oldest first.
+ */
+public class HallCallIndex {
+    private final int floors;
+    private final RequestQueue[] upQueues;
+    private final RequestQueue[] downQueues;
+    private final BitSet upCalls = new BitSet();
+    private final BitSet downCalls = new BitSet();
+    private final int[] upCar;   // assigned car per floor, or -1
+    private final int[] downCar;
+    private final boolean[] upPending;
+    private final boolean[] downPending;
+    private int size;
+
+    // Ring of calls waiting for a car, encoded as floor * 2 + (direction == DOWN ? 1 : 0).
+    private int[] pending = new int[16];
+    private int pendingHead;
+    private int pendingSize;
+
+    public HallCallIndex(int floors) {
+        this.floors = floors;
+        upQueues = new RequestQueue[floors + 1];
+        downQueues = new RequestQueue[floors + 1];
+        upCar = new int[floors + 1];
+        downCar = new int[floors + 1];
+        upPending = new boolean[floors + 1];
+        downPending = new boolean[floors + 1];
+        Arrays.fill(upCar, -1);
+        Arrays.fill(downCar, -1);
+    }
+
+    public int getFloors() { return floors; }
+
+    // Total number of waiting passengers.
+    public int size() { return size; }
+
+    // Direction a passenger travels; a trip to the same floor counts as up.
+    public static int direction(int sourceFloor, int destinationFloor) {
+        return (destinationFloor >= sourceFloor) ? Elevator.UP : Elevator.DOWN;
+    }
+
+    // Registers a waiting passenger and queues the call for dispatch if no car has it yet.
+    public void add(int sourceFloor, int destinationFloor, int timeEntered) {
+        int direction = direction(sourceFloor, destinationFloor);
+        queue(sourceFloor, direction).enqueue(sourceFloor, destinationFloor, timeEntered);
+        calls(direction).set(sourceFloor);
+        size++;
+        if (getAssignedCar(sourceFloor, direction) < 0)
+            addPending(sourceFloor, direction);
+    }
+
+    public boolean hasCall(int floor, int direction) {
+        return calls(direction).get(floor);
+    }
+
+    public RequestQueue queue(int floor, int direction) {
+        RequestQueue[] queues = (direction == Elevator.UP) ? upQueues : downQueues;
+        if (queues[floor] == null)
+            queues[floor] = new RequestQueue(4);
+        return queues[floor];
+    }
+
+    // Removes the passenger at the head of a call's queue once it has boarded.
+    public void removeHead(int floor, int direction) {
+        RequestQueue queue = queue(floor, direction);
+        queue.remove();
+        size--;
+        if (queue.isEmpty())
+            calls(direction).clear(floor);
+    }
+
+    // Nearest floor strictly beyond the given one in the search direction with a call
+    // in the call direction, or -1 when there is none.
+    public int nextCall(int floor, int searchDirection, int callDirection) {
+        BitSet calls = calls(callDirection);
+        if (searchDirection == Elevator.UP) {
+            int next = calls.nextSetBit(floor + 1);
+            return (next > floors) ? -1 : next;
+        }
+        return (floor > 1) ? calls.previousSetBit(floor - 1) : -1;
+    }
+
+    public int getAssignedCar(int floor, int direction) {
+        return (direction == Elevator.UP) ? upCar[floor] : downCar[floor];
+    }
+
+    public void setAssignedCar(int floor, int direction, int car) {
+        if (direction == Elevator.UP) upCar[floor] = car;
+        else downCar[floor] = car;
+    }
+
+    public boolean hasPending() { return pendingSize > 0; }
+    public int pendingCount() { return pendingSize; }
+    public int peekPendingFloor() { return pending[pendingHead] >> 1; }
+    public int peekPendingDirection() { return ((pending[pendingHead] & 1) == 0) ? Elevator.UP : Elevator.DOWN; }
+
+    public void removePending() {
+        int key = pending[pendingHead];
+        pendingFlags(((key & 1) == 0) ? Elevator.UP : Elevator.DOWN)[key >> 1] = false;
+        pendingHead = (pendingHead + 1) & (pending.length - 1);
+        pendingSize--;
+    }
+
+    // Moves the oldest waiting call behind the others; it stays pending.
+    public void deferPending() {
+        int key = pending[pendingHead];
+        pendingHead = (pendingHead + 1) & (pending.length - 1);
+        pending[(pendingHead + pendingSize - 1) & (pending.length - 1)] = key;
+    }
+
+    // Queues a call for assignment unless it is already waiting for one.
+    public void addPending(int floor, int direction) {
+        boolean[] flags = pendingFlags(direction);
+        if (flags[floor]) return;
+        flags[floor] = true;
+        if (pendingSize == pending.length) {
+            int[] grown = new int[pending.length * 2];
+            for (int i = 0; i < pendingSize; i++)
+                grown[i] = pending[(pendingHead + i) & (pending.length - 1)];
+            pending = grown;
+            pendingHead = 0;
+        }
+        pending[(pendingHead + pendingSize) & (pending.length - 1)] =
+                floor * 2 + ((direction == Elevator.UP) ? 0 : 1);
+        pendingSize++;
+    }
+
+    private BitSet calls(int direction) {
+        return (direction == Elevator.UP) ? upCalls : downCalls;
+    }
+
+    private boolean[] pendingFlags(int direction) {
+        return (direction == Elevator.UP) ? upPending : downPending;
+    }
+}
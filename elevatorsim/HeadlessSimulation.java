@@ -0,0 +1,265 @@
+package elevatorsim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs the elevator model without JavaFX so it can be stepped as fast as the
+ * CPU allows. Each tick follows the same order as ElevatorGameEnhanced.gameTick():
+ * a possible arrival, assignment to an idle elevator, then one shift.
+ *
+ * All randomness comes from one RandomSource, so a run is fully determined by its seed.
+ * Alternatively the arrivals can be replayed from an ArrivalSource, in which case
+ * every recorded arrival due by a tick joins the queue on that tick.
+ *
+ * The full model state (clock, elevator, queue, statistics and random stream)
+ * can be saved to a ByteBuffer and restored, or forked in memory, so what-if
+ * experiments can branch from one warmed-up state instead of re-running the
+ * prefix. Replayed simulations cannot be saved, since their position lives in
+ * a file.
+ */
+public class HeadlessSimulation implements Simulation {
+    private static final int BATCH_SIZE = 1024;
+    private static final int STATE_MAGIC = 0x454c5653; // "ELVS"
+    private static final int STATE_VERSION = 2; // 1 had no busy tick count
+    private static final int STATE_HEADER_SIZE = 60;
+
+    private final int floors;
+    private final RandomSource random;
+    private final RequestQueue requestQueue;
+    private BooleanSource requestProb;
+    private final Elevator elevator;
+    private final SimStats stats;
+    private TraceLog trace;
+    private final ArrivalSource replay;
+    private boolean replayReady; // replay holds an arrival not yet enqueued
+    private int currentTime;
+
+    private long arrivals;
+    private int maxQueueSize;
+    private long busyTicks;
+    private final int[] waitingPerFloor; // waiting requests by source floor, for rendering
+
+    // Scratch buffers for drawing a batch of ticks' worth of random numbers at once.
+    private final boolean[] arrivedBatch = new boolean[BATCH_SIZE];
+    private final int[] sourceBatch = new int[BATCH_SIZE];
+    private final int[] destinationBatch = new int[BATCH_SIZE];
+
+    public HeadlessSimulation(int floors, double probability) {
+        this(floors, probability, new RandomSource());
+    }
+
+    public HeadlessSimulation(int floors, double probability, long seed) {
+        this(floors, probability, new RandomSource(seed));
+    }
+
+    public HeadlessSimulation(int floors, double probability, RandomSource random) {
+        this(floors, probability, random, new RequestQueue(), new SimStats(), null);
+    }
+
+    // Replays recorded arrivals instead of generating them. The caller closes the source.
+    public HeadlessSimulation(int floors, ArrivalSource replay) {
+        this(floors, 0.0, new RandomSource(), new RequestQueue(), new SimStats(), replay);
+        replayReady = replay.advance();
+    }
+
+    private HeadlessSimulation(int floors, double probability, RandomSource random, RequestQueue queue,
+                               SimStats stats, ArrivalSource replay) {
+        if (floors < 1)
+            throw new IllegalArgumentException("Building must have at least one floor");
+        this.floors = floors;
+        this.random = random;
+        this.stats = stats;
+        this.replay = replay;
+        requestQueue = queue;
+        waitingPerFloor = new int[floors + 1];
+        for (int i = 0; i < queue.size(); i++)
+            waitingPerFloor[queue.getSourceFloor(i)]++;
+        requestProb = new BooleanSource(probability, random);
+        elevator = new Elevator();
+        currentTime = 0;
+    }
+
+    // Advances the simulation by a single tick.
+    public void tick() {
+        if (replay != null)
+            replayStep();
+        else if (requestProb.requestArrived())
+            step(true, random.nextFloor(floors), random.nextFloor(floors));
+        else
+            step(false, 0, 0);
+    }
+
+    // Runs the ticks in batches, drawing each batch's arrivals and floor pairs in one call.
+    @Override
+    public void run(int ticks) {
+        if (replay != null) {
+            for (int i = 0; i < ticks; i++)
+                replayStep();
+            return;
+        }
+        while (ticks > 0) {
+            int count = Math.min(ticks, BATCH_SIZE);
+            int arrived = requestProb.requestsArrived(arrivedBatch, count);
+            random.fillFloorPairs(floors, sourceBatch, destinationBatch, arrived);
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                if (arrivedBatch[i]) {
+                    step(true, sourceBatch[next], destinationBatch[next]);
+                    next++;
+                } else {
+                    step(false, 0, 0);
+                }
+            }
+            ticks -= count;
+        }
+    }
+
+    private void step(boolean arrived, int sourceFloor, int destinationFloor) {
+        currentTime++;
+        if (arrived)
+            arrive(sourceFloor, destinationFloor);
+        finishTick();
+    }
+
+    // Same as step(), taking every replayed arrival that is due.
+    private void replayStep() {
+        currentTime++;
+        while (replayReady && replay.getTime() <= currentTime) {
+            ArrivalSource.checkFloors(replay, floors);
+            arrive(replay.getSourceFloor(), replay.getDestinationFloor());
+            replayReady = replay.advance();
+        }
+        finishTick();
+    }
+
+    private void arrive(int sourceFloor, int destinationFloor) {
+        requestQueue.enqueue(sourceFloor, destinationFloor, currentTime);
+        if (trace != null)
+            trace.arrival(currentTime, sourceFloor, destinationFloor);
+        waitingPerFloor[sourceFloor]++;
+        arrivals++;
+        if (requestQueue.size() > maxQueueSize)
+            maxQueueSize = requestQueue.size();
+    }
+
+    // Assignment and elevator step, after the tick's arrivals.
+    private void finishTick() {
+        if (elevator.getElevatorState() == Elevator.IDLE && !requestQueue.isEmpty()) {
+            waitingPerFloor[requestQueue.peekSourceFloor()]--;
+            elevator.assignFrom(requestQueue);
+            if (trace != null)
+                trace.assign(currentTime, 0, elevator.getRequestSourceFloor(), elevator.getRequestDestinationFloor());
+        }
+
+        elevator.shift(currentTime, stats);
+        if (elevator.getElevatorState() != Elevator.IDLE)
+            busyTicks++;
+        stats.recordQueueDepth(requestQueue.size());
+    }
+
+    @Override public int getFloors() { return floors; }
+    @Override public int getCurrentTime() { return currentTime; }
+    @Override public int getQueueSize() { return requestQueue.size(); }
+    @Override public int getMaxQueueSize() { return maxQueueSize; }
+    @Override public long getArrivals() { return arrivals; }
+    @Override public long getBusyTicks() { return busyTicks; }
+    @Override public SimStats getStats() { return stats; }
+
+    @Override
+    public void setTraceLog(TraceLog trace) {
+        this.trace = trace;
+        elevator.setTraceLog(trace, 0);
+    }
+
+    public Elevator getElevator() { return elevator; }
+
+    public double getProbability() { return requestProb.getProbability(); }
+
+    // Changes the arrival probability for subsequent ticks, keeping the same random stream.
+    public void setProbability(double probability) {
+        requestProb = new BooleanSource(probability, random);
+    }
+
+    // Exact copy of the current state that runs independently of this one and
+    // continues with the same random numbers. Tracing is not carried over.
+    public HeadlessSimulation fork() {
+        return fork(new RandomSource(random.getSeed(), random.getGamma()));
+    }
+
+    // Copy of the current state whose future arrivals come from the given stream,
+    // for sampling many different continuations of one state.
+    public HeadlessSimulation fork(RandomSource continuation) {
+        checkNotReplay();
+        HeadlessSimulation copy = new HeadlessSimulation(floors, getProbability(), continuation,
+                                                         requestQueue.copy(), stats.copy(), null);
+        copy.elevator.copyStateFrom(elevator);
+        copy.currentTime = currentTime;
+        copy.arrivals = arrivals;
+        copy.maxQueueSize = maxQueueSize;
+        copy.busyTicks = busyTicks;
+        return copy;
+    }
+
+    // Bytes saveState() writes for the current state.
+    public int stateSize() {
+        return STATE_HEADER_SIZE + Elevator.SERIALIZED_SIZE + requestQueue.serializedSize() + stats.serializedSize();
+    }
+
+    // Saves the current state to a new buffer, positioned at zero.
+    public ByteBuffer saveState() {
+        ByteBuffer out = ByteBuffer.allocate(stateSize());
+        saveState(out);
+        return out.flip();
+    }
+
+    // Writes the current state at the buffer's position; see restoreState().
+    public void saveState(ByteBuffer out) {
+        checkNotReplay();
+        out.putInt(STATE_MAGIC).putInt(STATE_VERSION)
+           .putInt(floors).putInt(currentTime).putLong(arrivals).putInt(maxQueueSize).putLong(busyTicks)
+           .putDouble(getProbability()).putLong(random.getSeed()).putLong(random.getGamma());
+        elevator.writeTo(out);
+        requestQueue.writeTo(out);
+        stats.writeTo(out);
+    }
+
+    // Rebuilds a simulation from state written by saveState(). The restored copy
+    // continues exactly as the original would have.
+    public static HeadlessSimulation restoreState(ByteBuffer in) {
+        if (in.getInt() != STATE_MAGIC)
+            throw new IllegalArgumentException("Not a saved simulation state");
+        int version = in.getInt();
+        if (version != STATE_VERSION && version != 1)
+            throw new IllegalArgumentException("Unsupported simulation state version " + version);
+        int floors = in.getInt();
+        int currentTime = in.getInt();
+        long arrivals = in.getLong();
+        int maxQueueSize = in.getInt();
+        long busyTicks = (version == 1) ? 0 : in.getLong(); // states saved before it was counted
+        double probability = in.getDouble();
+        RandomSource random = new RandomSource(in.getLong(), in.getLong());
+        Elevator elevator = new Elevator();
+        elevator.readFrom(in);
+        RequestQueue queue = RequestQueue.readFrom(in);
+        SimStats stats = SimStats.readFrom(in);
+
+        HeadlessSimulation sim = new HeadlessSimulation(floors, probability, random, queue, stats, null);
+        sim.elevator.copyStateFrom(elevator);
+        sim.currentTime = currentTime;
+        sim.arrivals = arrivals;
+        sim.maxQueueSize = maxQueueSize;
+        sim.busyTicks = busyTicks;
+        return sim;
+    }
+
+    private void checkNotReplay() {
+        if (replay != null)
+            throw new IllegalStateException("A replayed simulation cannot be saved or forked");
+    }
+
+    // Number of requests waiting at each floor, indexed 1..floors. Kept up to date in
+    // O(1) per request so renderers never have to walk the queue.
+    public int[] copyWaitingPerFloor() {
+        return waitingPerFloor.clone();
+    }
+}
@@ -0,0 +1,143 @@
+package elevatorsim;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed-size log-linear histogram of non-negative long values, laid out like
+ * HdrHistogram with two significant digits: values below 64 get exact buckets,
+ * and each power of two above that is split into 32 linear sub-buckets, so any
+ * reported value is within about 3% of the recorded one. Recording is a shift
+ * and an array increment with no allocation, and histograms from parallel
+ * replicas can be merged by adding their counts.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;   // 32
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKET_COUNT;        // 64
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + EXACT_LIMIT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    // Records the same value count times, e.g. a queue depth that held for count ticks.
+    public void record(long value, long count) {
+        if (value < 0)
+            throw new IllegalArgumentException("Histogram values must not be negative");
+        if (count <= 0)
+            return;
+        counts[indexOf(value)] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    // Adds every recording of other into this histogram.
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+        totalCount += other.totalCount;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    // Bytes writeTo() needs: a fixed header plus ten bytes per non-empty bucket.
+    public int serializedSize() {
+        return 36 + 10 * nonEmptyBuckets();
+    }
+
+    // Writes the histogram sparsely, listing only non-empty buckets.
+    public void writeTo(ByteBuffer out) {
+        out.putInt(nonEmptyBuckets()).putLong(totalCount).putLong(sum).putLong(min).putLong(max);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0)
+                out.putShort((short) i).putLong(counts[i]);
+        }
+    }
+
+    public static LatencyHistogram readFrom(ByteBuffer in) {
+        LatencyHistogram h = new LatencyHistogram();
+        int buckets = in.getInt();
+        h.totalCount = in.getLong();
+        h.sum = in.getLong();
+        h.min = in.getLong();
+        h.max = in.getLong();
+        for (int i = 0; i < buckets; i++) {
+            int index = in.getShort();
+            if (index < 0 || index >= BUCKETS)
+                throw new IllegalArgumentException("Corrupt histogram bucket " + index);
+            h.counts[index] = in.getLong();
+        }
+        return h;
+    }
+
+    private int nonEmptyBuckets() {
+        int n = 0;
+        for (long count : counts)
+            if (count != 0) n++;
+        return n;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() { return totalCount; }
+    public long getSum() { return sum; }
+    public long getMax() { return max; }
+    public long getMin() { return (totalCount > 0) ? min : 0; }
+
+    public double getMean() {
+        return (totalCount > 0) ? (double) sum / totalCount : 0.0;
+    }
+
+    // Smallest recorded bucket value such that the given percentage of recordings are
+    // at or below it, reported as the top of that bucket (capped at the true maximum).
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0;
+        double fraction = Math.min(Math.max(percentile, 0.0), 100.0) / 100.0;
+        long target = Math.max(1, (long) Math.ceil(fraction * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highestValueOf(i), max);
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT_LIMIT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < EXACT_LIMIT)
+            return index;
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long top = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
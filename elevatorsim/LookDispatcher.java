@@ -0,0 +1,39 @@
+package elevatorsim;
+
+/**
+ * SCAN/LOOK assignment: every call goes immediately to the car that would reach it
+ * soonest while continuing its current sweep. The estimate assumes a moving car runs
+ * to the end of the building before reversing, which is the SCAN upper bound on the
+ * LOOK path the car actually follows.
+ */
+public class LookDispatcher implements Dispatcher {
+    @Override
+    public int selectCar(Elevator[] cars, int floors, int floor, int callDirection) {
+        int best = -1;
+        int bestCost = Integer.MAX_VALUE;
+        for (int i = 0; i < cars.length; i++) {
+            int cost = sweepDistance(cars[i], floors, floor, callDirection);
+            if (cost < bestCost) {
+                best = i;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    // Floors the car travels before it passes floor heading in callDirection.
+    private static int sweepDistance(Elevator car, int floors, int floor, int callDirection) {
+        int at = car.getCurrentFloor();
+        int direction = car.getDirection();
+        if (direction == 0)
+            return Math.abs(floor - at);
+        if (direction == Elevator.UP) {
+            if (callDirection == Elevator.UP && floor >= at) return floor - at;
+            if (callDirection == Elevator.DOWN) return (floors - at) + (floors - floor);
+            return (floors - at) + (floors - 1) + (floor - 1);
+        }
+        if (callDirection == Elevator.DOWN && floor <= at) return at - floor;
+        if (callDirection == Elevator.UP) return (at - 1) + (floor - 1);
+        return (at - 1) + (floors - 1) + (floors - floor);
+    }
+}
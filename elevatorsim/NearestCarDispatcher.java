@@ -0,0 +1,29 @@
+package elevatorsim;
+
+/**
+ * Gives a call to the closest car that can take it on its current trip: an idle
+ * car, or one with spare room already travelling toward the floor in the call's
+ * direction. The call stays pending if no such car exists.
+ */
+public class NearestCarDispatcher implements Dispatcher {
+    @Override
+    public int selectCar(Elevator[] cars, int floors, int floor, int callDirection) {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < cars.length; i++) {
+            Elevator car = cars[i];
+            int offset = floor - car.getCurrentFloor();
+            boolean idle = car.getElevatorState() == Elevator.IDLE;
+            boolean onTheWay = car.getDirection() == callDirection
+                    && offset * callDirection >= 0
+                    && car.getLoad() < car.getCapacity();
+            if (!idle && !onTheWay) continue;
+            int distance = Math.abs(offset);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
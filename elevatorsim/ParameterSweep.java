@@ -0,0 +1,255 @@
+package elevatorsim;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo parameter sweep over floor counts and request probabilities.
+ * Every (floors, probability, replica) combination is an independent headless
+ * simulation, so the replicas are spread over all cores with a parallel stream
+ * and only aggregated once they have all finished; their wait histograms are merged
+ * so the CSV also reports tail percentiles across every replica. Each replica gets its own
+ * RandomSource split from one root seed, so the threads share no random state
+ * and the whole sweep can be replayed from that seed.
+ *
+ * Usage: ParameterSweep <floors,...> <probability,...> <replicas> <ticks> <output.csv> [tick|event] [seed]
+ */
+public class ParameterSweep {
+    // Two-sided 95% Student t critical values for 1..30 degrees of freedom.
+    private static final double[] T_95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    private final List<Config> configs = new ArrayList<>();
+    private final int replicas;
+    private final int ticks;
+    private final boolean eventMode;
+    private final long seed;
+
+    public ParameterSweep(int[] floorCounts, double[] probabilities, int replicas, int ticks,
+                          boolean eventMode, long seed) {
+        if (replicas < 1)
+            throw new IllegalArgumentException("At least one replica is required");
+        if (ticks < 1)
+            throw new IllegalArgumentException("Tick count must be positive");
+        for (int floors : floorCounts) {
+            if (floors < 1)
+                throw new IllegalArgumentException("Building must have at least one floor");
+            for (double p : probabilities) {
+                if (p < 0.0 || p > 1.0)
+                    throw new IllegalArgumentException("Probability must be between 0.0 and 1.0");
+                configs.add(new Config(floors, p));
+            }
+        }
+        this.replicas = replicas;
+        this.ticks = ticks;
+        this.eventMode = eventMode;
+        this.seed = seed;
+    }
+
+    // Runs every replica of every configuration and returns one summary per configuration.
+    public List<Summary> run() {
+        // Split the streams up front so each replica's stream does not depend on scheduling.
+        RandomSource root = new RandomSource(seed);
+        RandomSource[] streams = new RandomSource[configs.size() * replicas];
+        for (int i = 0; i < streams.length; i++)
+            streams[i] = root.split();
+
+        ReplicaResult[] results = IntStream.range(0, streams.length)
+                .parallel()
+                .mapToObj(i -> runReplica(configs.get(i / replicas), streams[i]))
+                .toArray(ReplicaResult[]::new);
+
+        List<Summary> summaries = new ArrayList<>(configs.size());
+        for (int c = 0; c < configs.size(); c++) {
+            double[] waits = new double[replicas];
+            double[] throughputs = new double[replicas];
+            double maxQueue = 0;
+            SimStats merged = new SimStats();
+            for (int r = 0; r < replicas; r++) {
+                ReplicaResult result = results[c * replicas + r];
+                waits[r] = result.averageWait;
+                throughputs[r] = result.throughput;
+                maxQueue += result.maxQueueSize;
+                merged.merge(result.stats);
+            }
+            summaries.add(new Summary(configs.get(c), replicas, ticks, seed,
+                    mean(waits), halfWidth95(waits),
+                    mean(throughputs), halfWidth95(throughputs),
+                    maxQueue / replicas, merged));
+        }
+        return summaries;
+    }
+
+    private ReplicaResult runReplica(Config config, RandomSource random) {
+        Simulation sim = eventMode ? new EventSimulation(config.floors, config.probability, random)
+                                   : new HeadlessSimulation(config.floors, config.probability, random);
+        sim.run(ticks);
+        return new ReplicaResult(sim.getAverageWait(), sim.getThroughput(), sim.getMaxQueueSize(), sim.getStats());
+    }
+
+    public static void writeCsv(List<Summary> summaries, String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("floors,probability,replicas,ticks,seed,mean_wait,wait_ci95,wait_p50,wait_p90,wait_p99,wait_max," +
+                        "mean_throughput,throughput_ci95,mean_max_queue");
+            for (Summary s : summaries) {
+                LatencyHistogram w = s.stats.getWaitTimes();
+                // Locale.ROOT: a decimal comma would break the columns
+                out.print(String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%.4f,%.4f,%d,%d,%d,%d,%.6f,%.6f,%.2f%n",
+                        s.config.floors, s.config.probability, s.replicas, s.ticks, s.seed,
+                        s.meanWait, s.waitCi95,
+                        w.getValueAtPercentile(50), w.getValueAtPercentile(90), w.getValueAtPercentile(99), w.getMax(),
+                        s.meanThroughput, s.throughputCi95, s.meanMaxQueue));
+            }
+        }
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) sum += v;
+        return sum / values.length;
+    }
+
+    // Half-width of the 95% confidence interval of the mean; zero for a single replica.
+    private static double halfWidth95(double[] values) {
+        int n = values.length;
+        if (n < 2) return 0.0;
+        double m = mean(values);
+        double squares = 0;
+        for (double v : values) squares += (v - m) * (v - m);
+        double stdDev = Math.sqrt(squares / (n - 1));
+        double t = (n - 1 <= T_95.length) ? T_95[n - 2] : 1.96;
+        return t * stdDev / Math.sqrt(n);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 5 || args.length > 7) {
+            printUsage();
+            return;
+        }
+        ParameterSweep sweep;
+        try {
+            int[] floors = parseInts(args[0]);
+            double[] probabilities = parseDoubles(args[1]);
+            int replicas = Integer.parseInt(args[2]);
+            int ticks = Integer.parseInt(args[3]);
+            String mode = (args.length >= 6) ? args[5].toLowerCase() : "tick";
+            if (!mode.equals("tick") && !mode.equals("event")) {
+                printUsage();
+                return;
+            }
+            long seed = (args.length == 7) ? Long.parseLong(args[6]) : new RandomSource().nextLong();
+            sweep = new ParameterSweep(floors, probabilities, replicas, ticks, mode.equals("event"), seed);
+        } catch (NumberFormatException e) {
+            printUsage();
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Summary> summaries = sweep.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        try {
+            writeCsv(summaries, args[4]);
+        } catch (IOException e) {
+            System.err.println("Failed to write " + args[4] + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Ran " + summaries.size() * sweep.replicas + " replicas of " + sweep.ticks +
+                           " ticks on " + Runtime.getRuntime().availableProcessors() + " cores in " +
+                           String.format("%.2f", seconds) + " s (seed " + sweep.seed + "); wrote " + args[4]);
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: ParameterSweep <floors,...> <probability,...> <replicas> <ticks> <output.csv> [tick|event] [seed]");
+    }
+
+    private static final class Config {
+        final int floors;
+        final double probability;
+
+        Config(int floors, double probability) {
+            this.floors = floors;
+            this.probability = probability;
+        }
+    }
+
+    private static final class ReplicaResult {
+        final double averageWait;
+        final double throughput;
+        final int maxQueueSize;
+        final SimStats stats;
+
+        ReplicaResult(double averageWait, double throughput, int maxQueueSize, SimStats stats) {
+            this.averageWait = averageWait;
+            this.throughput = throughput;
+            this.maxQueueSize = maxQueueSize;
+            this.stats = stats;
+        }
+    }
+
+    /** Aggregated statistics for one (floors, probability) configuration. */
+    public static final class Summary {
+        final Config config;
+        final int replicas;
+        final int ticks;
+        final long seed;
+        final double meanWait;
+        final double waitCi95;
+        final double meanThroughput;
+        final double throughputCi95;
+        final double meanMaxQueue;
+        final SimStats stats;
+
+        Summary(Config config, int replicas, int ticks, long seed, double meanWait, double waitCi95,
+                double meanThroughput, double throughputCi95, double meanMaxQueue, SimStats stats) {
+            this.config = config;
+            this.replicas = replicas;
+            this.ticks = ticks;
+            this.seed = seed;
+            this.meanWait = meanWait;
+            this.waitCi95 = waitCi95;
+            this.meanThroughput = meanThroughput;
+            this.throughputCi95 = throughputCi95;
+            this.meanMaxQueue = meanMaxQueue;
+            this.stats = stats;
+        }
+
+        public int getFloors() { return config.floors; }
+        public double getProbability() { return config.probability; }
+        public double getMeanWait() { return meanWait; }
+        public double getWaitCi95() { return waitCi95; }
+        public double getMeanThroughput() { return meanThroughput; }
+        public double getThroughputCi95() { return throughputCi95; }
+        public double getMeanMaxQueue() { return meanMaxQueue; }
+
+        // Histograms of all replicas of this configuration merged together.
+        public SimStats getStats() { return stats; }
+    }
+}
@@ -0,0 +1,124 @@
+package elevatorsim;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+/**
+ * Seedable random stream for the simulation, using the same SplitMix64 algorithm
+ * as java.util.SplittableRandom. Each replica owns its own instance, so there is
+ * no shared state to contend on, and a run can be replayed from its seed. split()
+ * derives statistically independent child streams for parallel work.
+ *
+ * Unlike SplittableRandom the state (seed and gamma) is visible, so a stream can
+ * be captured and restored exactly.
+ */
+public final class RandomSource implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // Hands out seeds for unseeded sources; only touched on construction.
+    private static final AtomicLong defaultSeeds =
+            new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    private static final ThreadLocal<RandomSource> threadLocal =
+            ThreadLocal.withInitial(RandomSource::new);
+
+    private long seed;
+    private final long gamma;
+
+    // Creates a stream with a seed that differs from every other unseeded stream.
+    public RandomSource() {
+        this(mix64(defaultSeeds.getAndAdd(2 * GOLDEN_GAMMA)), GOLDEN_GAMMA);
+    }
+
+    public RandomSource(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    // Restores a stream from the values returned by getSeed() and getGamma().
+    public RandomSource(long seed, long gamma) {
+        if ((gamma & 1L) == 0)
+            throw new IllegalArgumentException("Gamma must be odd");
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    // Stream private to the calling thread, for callers that do not carry their own.
+    public static RandomSource current() {
+        return threadLocal.get();
+    }
+
+    public long getSeed() { return seed; }
+    public long getGamma() { return gamma; }
+
+    // Returns a new independent stream and advances this one.
+    public RandomSource split() {
+        return new RandomSource(nextLong(), mixGamma(nextSeed()));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Uniform floor in 1..floors.
+    public int nextFloor(int floors) {
+        return nextInt(floors) + 1;
+    }
+
+    // One Bernoulli trial with the given success probability.
+    public boolean nextBoolean(double probability) {
+        return nextDouble() < probability;
+    }
+
+    // Number of trials up to and including the first success, so the result is at
+    // least 1. Returns Integer.MAX_VALUE when the probability is zero.
+    public int nextGeometric(double probability) {
+        if (probability <= 0.0) return Integer.MAX_VALUE;
+        if (probability >= 1.0) return 1;
+        double u = 1.0 - nextDouble(); // (0, 1] so the logarithm is finite
+        double trials = Math.floor(Math.log(u) / Math.log1p(-probability)) + 1;
+        return (trials >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) trials;
+    }
+
+    // Fills arrived[0..count) with independent trials and returns how many succeeded.
+    public int fillArrivals(double probability, boolean[] arrived, int count) {
+        int successes = 0;
+        for (int i = 0; i < count; i++) {
+            boolean hit = nextDouble() < probability;
+            arrived[i] = hit;
+            if (hit) successes++;
+        }
+        return successes;
+    }
+
+    // Fills count random (source, destination) floor pairs in 1..floors.
+    public void fillFloorPairs(int floors, int[] sources, int[] destinations, int count) {
+        for (int i = 0; i < count; i++) {
+            sources[i] = nextFloor(floors);
+            destinations[i] = nextFloor(floors);
+        }
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return (transitions < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
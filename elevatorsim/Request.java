@@ -13,11 +13,22 @@ public class Request {
 
     // Constructs a request with random source and destination floors.
     public Request(int floors) {
-        sourceFloor = (int)(Math.random() * floors + 1);
-        destinationFloor = (int)(Math.random() * floors + 1);
+        this(floors, RandomSource.current());
+    }
+
+    // Constructs a request with floors drawn from the given stream.
+    public Request(int floors, RandomSource random) {
+        sourceFloor = random.nextFloor(floors);
+        destinationFloor = random.nextFloor(floors);
         timeEntered = 0;
     }
 
+    public Request(int sourceFloor, int destinationFloor, int timeEntered) {
+        this.sourceFloor = sourceFloor;
+        this.destinationFloor = destinationFloor;
+        this.timeEntered = timeEntered;
+    }
+
     public int getSourceFloor() { return sourceFloor; }
     public void setSourceFloor(int sourceFloor) { this.sourceFloor = sourceFloor; }
     public int getDestinationFloor() { return destinationFloor; }
@@ -1,19 +1,156 @@
 package elevatorsim;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
-public class RequestQueue extends ArrayList<Request> {
+/**
+ * FIFO queue of waiting requests backed by a growable circular buffer. Source floor,
+ * destination floor and entry time are kept in parallel int arrays, so enqueue and
+ * dequeue are O(1) and the primitive methods never allocate once the buffer has grown
+ * to the working backlog. enqueue(Request) and dequeue() remain as adapters for code
+ * that works with Request objects.
+ */
+public class RequestQueue {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] sourceFloors;
+    private int[] destinationFloors;
+    private int[] timesEntered;
+    private int mask; // capacity is always a power of two
+    private int head;
+    private int size;
+
+    public RequestQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RequestQueue(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+        sourceFloors = new int[capacity];
+        destinationFloors = new int[capacity];
+        timesEntered = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public void enqueue(int sourceFloor, int destinationFloor, int timeEntered) {
+        if (size == sourceFloors.length)
+            grow();
+        int tail = (head + size) & mask;
+        sourceFloors[tail] = sourceFloor;
+        destinationFloors[tail] = destinationFloor;
+        timesEntered[tail] = timeEntered;
+        size++;
+    }
+
     public void enqueue(Request request) {
-        this.add(request);
+        enqueue(request.getSourceFloor(), request.getDestinationFloor(), request.getTimeEntered());
     }
 
+    // Removes the head request and returns it as a new Request object.
     public Request dequeue() {
-        if (!this.isEmpty()) {
-            return this.remove(0);
-        } else {
-            throw new NoSuchElementException("Queue is empty");
+        Request request = new Request(peekSourceFloor(), peekDestinationFloor(), peekTimeEntered());
+        remove();
+        return request;
+    }
+
+    // Removes the head request without materializing it.
+    public void remove() {
+        checkNotEmpty();
+        head = (head + 1) & mask;
+        size--;
+    }
+
+    public int peekSourceFloor() {
+        checkNotEmpty();
+        return sourceFloors[head];
+    }
+
+    public int peekDestinationFloor() {
+        checkNotEmpty();
+        return destinationFloors[head];
+    }
+
+    public int peekTimeEntered() {
+        checkNotEmpty();
+        return timesEntered[head];
+    }
+
+    // Independent copy with the same contents.
+    public RequestQueue copy() {
+        RequestQueue copy = new RequestQueue(2);
+        copy.sourceFloors = sourceFloors.clone();
+        copy.destinationFloors = destinationFloors.clone();
+        copy.timesEntered = timesEntered.clone();
+        copy.mask = mask;
+        copy.head = head;
+        copy.size = size;
+        return copy;
+    }
+
+    public int serializedSize() {
+        return 4 + 12 * size;
+    }
+
+    // Writes the size followed by each request from the head.
+    public void writeTo(ByteBuffer out) {
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) & mask;
+            out.putInt(sourceFloors[slot]).putInt(destinationFloors[slot]).putInt(timesEntered[slot]);
         }
     }
-}
 
+    public static RequestQueue readFrom(ByteBuffer in) {
+        int size = in.getInt();
+        if (size < 0 || size > in.remaining() / 12)
+            throw new IllegalArgumentException("Corrupt request queue size " + size);
+        RequestQueue queue = new RequestQueue(Math.max(size, DEFAULT_CAPACITY));
+        for (int i = 0; i < size; i++)
+            queue.enqueue(in.getInt(), in.getInt(), in.getInt());
+        return queue;
+    }
+
+    // Accessors by queue position, 0 being the head; used to inspect the backlog in place.
+    public int getSourceFloor(int index) { return sourceFloors[slot(index)]; }
+    public int getDestinationFloor(int index) { return destinationFloors[slot(index)]; }
+    public int getTimeEntered(int index) { return timesEntered[slot(index)]; }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for queue size " + size);
+        return (head + index) & mask;
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0)
+            throw new NoSuchElementException("Queue is empty");
+    }
+
+    // Doubles the capacity, unwrapping the ring so the head starts at slot 0.
+    private void grow() {
+        int capacity = sourceFloors.length;
+        if (capacity > (1 << 29))
+            throw new IllegalStateException("Request queue is full");
+        sourceFloors = unwrap(sourceFloors, capacity * 2);
+        destinationFloors = unwrap(destinationFloors, capacity * 2);
+        timesEntered = unwrap(timesEntered, capacity * 2);
+        head = 0;
+        mask = capacity * 2 - 1;
+    }
+
+    private int[] unwrap(int[] old, int newCapacity) {
+        int[] grown = new int[newCapacity];
+        int firstPart = Math.min(size, old.length - head);
+        System.arraycopy(old, head, grown, 0, firstPart);
+        System.arraycopy(old, 0, grown, firstPart, size - firstPart);
+        return grown;
+    }
+}
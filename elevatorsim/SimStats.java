@@ -0,0 +1,103 @@
+package elevatorsim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics recorder shared by the GUI and the headless engines. Wait time (entry
+ * to pickup), ride time (pickup to drop-off) and queue depth each go into their own
+ * LatencyHistogram, so besides averages the recorder can report tail percentiles.
+ * Recorders from parallel replicas combine with merge().
+ */
+public class SimStats {
+    private final LatencyHistogram waitTimes;
+    private final LatencyHistogram rideTimes;
+    private final LatencyHistogram queueDepths;
+
+    // Per-tick depth samples are run-length coalesced, since the depth rarely changes.
+    private int runDepth;
+    private long runLength;
+
+    public SimStats() {
+        this(new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram());
+    }
+
+    private SimStats(LatencyHistogram waitTimes, LatencyHistogram rideTimes, LatencyHistogram queueDepths) {
+        this.waitTimes = waitTimes;
+        this.rideTimes = rideTimes;
+        this.queueDepths = queueDepths;
+    }
+
+    public SimStats copy() {
+        SimStats copy = new SimStats(waitTimes.copy(), rideTimes.copy(), queueDepths.copy());
+        copy.runDepth = runDepth;
+        copy.runLength = runLength;
+        return copy;
+    }
+
+    public int serializedSize() {
+        return waitTimes.serializedSize() + rideTimes.serializedSize() + queueDepths.serializedSize() + 12;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        waitTimes.writeTo(out);
+        rideTimes.writeTo(out);
+        queueDepths.writeTo(out);
+        out.putInt(runDepth).putLong(runLength);
+    }
+
+    public static SimStats readFrom(ByteBuffer in) {
+        SimStats stats = new SimStats(LatencyHistogram.readFrom(in), LatencyHistogram.readFrom(in),
+                                      LatencyHistogram.readFrom(in));
+        stats.runDepth = in.getInt();
+        stats.runLength = in.getLong();
+        return stats;
+    }
+
+    public void recordWait(int ticks) { waitTimes.record(ticks); }
+    public void recordRide(int ticks) { rideTimes.record(ticks); }
+
+    // Records the queue depth at the end of one tick.
+    public void recordQueueDepth(int depth) {
+        if (depth != runDepth) {
+            flushQueueDepth();
+            runDepth = depth;
+        }
+        runLength++;
+    }
+
+    // Records a queue depth that held for the given number of ticks.
+    public void recordQueueDepth(int depth, long ticks) { queueDepths.record(depth, ticks); }
+
+    public LatencyHistogram getWaitTimes() { return waitTimes; }
+    public LatencyHistogram getRideTimes() { return rideTimes; }
+
+    public LatencyHistogram getQueueDepths() {
+        flushQueueDepth();
+        return queueDepths;
+    }
+
+    private void flushQueueDepth() {
+        queueDepths.record(runDepth, runLength);
+        runLength = 0;
+    }
+
+    // Requests picked up so far, and the sum of their waits.
+    public long getServedCount() { return waitTimes.getCount(); }
+    public long getTotalWait() { return waitTimes.getSum(); }
+
+    // Requests carried to their destination so far.
+    public long getDeliveredCount() { return rideTimes.getCount(); }
+
+    public void merge(SimStats other) {
+        waitTimes.merge(other.waitTimes);
+        rideTimes.merge(other.rideTimes);
+        queueDepths.merge(other.getQueueDepths());
+        flushQueueDepth();
+    }
+
+    // One-line p50/p90/p99/max summary of a histogram.
+    public static String percentiles(LatencyHistogram h) {
+        return "p50=" + h.getValueAtPercentile(50) + " p90=" + h.getValueAtPercentile(90) +
+               " p99=" + h.getValueAtPercentile(99) + " max=" + h.getMax();
+    }
+}
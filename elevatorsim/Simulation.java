@@ -0,0 +1,46 @@
+package elevatorsim;
+
+/**
+ * Common view of the headless simulation engines so callers can pick a time
+ * advance strategy without caring how it is implemented.
+ */
+public interface Simulation {
+    // Advances the simulated clock by the given number of ticks.
+    void run(int ticks);
+
+    int getFloors();
+    int getCurrentTime();
+    int getQueueSize();
+    int getMaxQueueSize();
+    long getArrivals();
+
+    // Wait, ride and queue-depth histograms recorded so far.
+    SimStats getStats();
+
+    // Records arrivals, assignments, pickups and drop-offs to trace from now on;
+    // null turns tracing off. The caller owns the log and closes it.
+    void setTraceLog(TraceLog trace);
+
+    default long getTotalWait() { return getStats().getTotalWait(); }
+    default long getServedCount() { return getStats().getServedCount(); }
+    default long getDeliveredCount() { return getStats().getDeliveredCount(); }
+
+    default double getAverageWait() {
+        return (getServedCount() > 0) ? (double) getTotalWait() / getServedCount() : 0.0;
+    }
+
+    // Car-ticks in which a car was not idle, and the number of cars.
+    long getBusyTicks();
+    default int getCarCount() { return 1; }
+
+    // Fraction of car-ticks spent not idle.
+    default double getUtilization() {
+        long carTicks = (long) getCurrentTime() * getCarCount();
+        return (carTicks > 0) ? (double) getBusyTicks() / carTicks : 0.0;
+    }
+
+    // Completed trips per simulated tick.
+    default double getThroughput() {
+        return (getCurrentTime() > 0) ? (double) getDeliveredCount() / getCurrentTime() : 0.0;
+    }
+}
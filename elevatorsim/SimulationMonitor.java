@@ -0,0 +1,145 @@
+package elevatorsim;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JMX view of a running simulation. The simulation thread calls record() after
+ * each batch of ticks: that adds to LongAdder counters and, at most every
+ * PUBLISH_INTERVAL_NANOS, copies the model's figures into an immutable Sample
+ * published through a volatile field. JMX threads only read counters and that
+ * sample, so they never touch the model or its histograms, and the tick loop
+ * pays a couple of additions per batch rather than per tick.
+ */
+public class SimulationMonitor implements SimulationMonitorMBean {
+    private static final long PUBLISH_INTERVAL_NANOS = 100_000_000L;
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder tickNanos = new LongAdder();
+
+    // Only touched by the recording thread.
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
+    private long lastPublish;
+    private long rateWindowStart;
+    private long rateWindowTicks;
+    private double tickRate;
+
+    private volatile Sample sample = new Sample();
+
+    // Immutable copy of the model's figures at one point in time.
+    private static final class Sample {
+        int simulatedTime;
+        int queueDepth;
+        int maxQueueDepth;
+        long arrivals;
+        long served;
+        long delivered;
+        double utilization;
+        double averageWait;
+        long waitP50, waitP90, waitP99, waitMax;
+        long latencyP50, latencyP99, latencyMax;
+        double ticksPerSecond;
+    }
+
+    // Records a batch of ticks that took the given wall-clock time. Must be called from
+    // the thread that runs the simulation.
+    public void record(Simulation sim, int batchTicks, long nanos) {
+        if (batchTicks <= 0)
+            return;
+        ticks.add(batchTicks);
+        tickNanos.add(nanos);
+        tickLatency.record(Math.max(0, nanos) / batchTicks);
+        rateWindowTicks += batchTicks;
+
+        long now = System.nanoTime();
+        if (lastPublish == 0) {
+            rateWindowStart = now - nanos;
+        } else if (now - lastPublish < PUBLISH_INTERVAL_NANOS) {
+            return;
+        }
+        publish(sim, now);
+    }
+
+    // Publishes the simulation's current figures straight away, e.g. at the end of a run.
+    public void publish(Simulation sim) {
+        publish(sim, System.nanoTime());
+    }
+
+    private void publish(Simulation sim, long now) {
+        if (lastPublish == 0 || now - rateWindowStart >= RATE_WINDOW_NANOS) {
+            if (now > rateWindowStart)
+                tickRate = rateWindowTicks * 1e9 / (now - rateWindowStart);
+            rateWindowStart = now;
+            rateWindowTicks = 0;
+        }
+        lastPublish = now;
+
+        LatencyHistogram waits = sim.getStats().getWaitTimes();
+        Sample s = new Sample();
+        s.simulatedTime = sim.getCurrentTime();
+        s.queueDepth = sim.getQueueSize();
+        s.maxQueueDepth = sim.getMaxQueueSize();
+        s.arrivals = sim.getArrivals();
+        s.served = sim.getServedCount();
+        s.delivered = sim.getDeliveredCount();
+        s.utilization = sim.getUtilization();
+        s.averageWait = sim.getAverageWait();
+        s.waitP50 = waits.getValueAtPercentile(50);
+        s.waitP90 = waits.getValueAtPercentile(90);
+        s.waitP99 = waits.getValueAtPercentile(99);
+        s.waitMax = waits.getMax();
+        s.latencyP50 = tickLatency.getValueAtPercentile(50);
+        s.latencyP99 = tickLatency.getValueAtPercentile(99);
+        s.latencyMax = tickLatency.getMax();
+        s.ticksPerSecond = tickRate;
+        sample = s;
+    }
+
+    // Registers this monitor with the platform MBean server as
+    // elevatorsim:type=Simulation,name=<name>.
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("elevatorsim:type=Simulation,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+
+    @Override public double getTicksPerSecond() { return sample.ticksPerSecond; }
+    @Override public long getTicksProcessed() { return ticks.sum(); }
+    @Override public int getSimulatedTime() { return sample.simulatedTime; }
+    @Override public int getQueueDepth() { return sample.queueDepth; }
+    @Override public int getMaxQueueDepth() { return sample.maxQueueDepth; }
+    @Override public long getArrivals() { return sample.arrivals; }
+    @Override public long getServedCount() { return sample.served; }
+    @Override public long getDeliveredCount() { return sample.delivered; }
+    @Override public double getElevatorUtilization() { return sample.utilization; }
+
+    @Override public double getAverageWait() { return sample.averageWait; }
+    @Override public long getWaitP50() { return sample.waitP50; }
+    @Override public long getWaitP90() { return sample.waitP90; }
+    @Override public long getWaitP99() { return sample.waitP99; }
+    @Override public long getWaitMax() { return sample.waitMax; }
+
+    @Override
+    public double getTickLatencyMeanNanos() {
+        long count = ticks.sum();
+        return (count > 0) ? (double) tickNanos.sum() / count : 0.0;
+    }
+
+    @Override public long getTickLatencyP50Nanos() { return sample.latencyP50; }
+    @Override public long getTickLatencyP99Nanos() { return sample.latencyP99; }
+    @Override public long getTickLatencyMaxNanos() { return sample.latencyMax; }
+}
@@ -0,0 +1,29 @@
+package elevatorsim;
+
+/**
+ * Management interface of SimulationMonitor, shown in JConsole under the
+ * "elevatorsim" domain. Times are in simulated ticks unless named otherwise.
+ */
+public interface SimulationMonitorMBean {
+    double getTicksPerSecond();
+    long getTicksProcessed();
+    int getSimulatedTime();
+    int getQueueDepth();
+    int getMaxQueueDepth();
+    long getArrivals();
+    long getServedCount();
+    long getDeliveredCount();
+    double getElevatorUtilization();
+
+    double getAverageWait();
+    long getWaitP50();
+    long getWaitP90();
+    long getWaitP99();
+    long getWaitMax();
+
+    // Mean wall-clock cost of a tick, per batch of ticks run.
+    double getTickLatencyMeanNanos();
+    long getTickLatencyP50Nanos();
+    long getTickLatencyP99Nanos();
+    long getTickLatencyMaxNanos();
+}
@@ -0,0 +1,154 @@
+package elevatorsim;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Drives a HeadlessSimulation on its own thread, either at a fixed number of
+ * ticks per second or as fast as possible, and publishes an immutable
+ * SimulationSnapshot after each batch of ticks. Other threads never touch the
+ * model directly: they read the latest snapshot and submit commands, which the
+ * runner applies between ticks. An optional SimulationMonitor is fed after
+ * every batch so the run can be watched over JMX.
+ */
+public class SimulationRunner {
+    private static final long PUBLISH_INTERVAL_NANOS = 4_000_000;  // minimum time between snapshots
+    private static final int UNTHROTTLED_CHUNK = 1000;
+
+    private final HeadlessSimulation sim;
+    private final Queue<Consumer<HeadlessSimulation>> commands = new ConcurrentLinkedQueue<>();
+    private volatile SimulationSnapshot latest;
+    private volatile double ticksPerSecond = 1.0;
+    private volatile boolean unthrottled;
+    private volatile boolean running;
+    private Thread thread;
+    private volatile SimulationMonitor monitor;
+
+    // Measured simulation rate, updated about once a second.
+    private long rateWindowStart;
+    private int rateWindowTicks;
+    private double measuredRate;
+
+    public SimulationRunner(HeadlessSimulation sim) {
+        this.sim = sim;
+        latest = new SimulationSnapshot(sim, 0.0);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::runLoop, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    // Target rate in simulated ticks per wall-clock second; 1.0 matches the original game.
+    public void setTicksPerSecond(double rate) {
+        if (rate <= 0)
+            throw new IllegalArgumentException("Tick rate must be positive");
+        ticksPerSecond = rate;
+    }
+
+    public void setUnthrottled(boolean unthrottled) { this.unthrottled = unthrottled; }
+
+    // Queues an action to run on the simulation thread before the next tick.
+    public void submit(Consumer<HeadlessSimulation> command) {
+        commands.add(command);
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    public SimulationSnapshot getLatestSnapshot() { return latest; }
+
+    public void setMonitor(SimulationMonitor monitor) { this.monitor = monitor; }
+
+    private void runLoop() {
+        long last = System.nanoTime();
+        rateWindowStart = last;
+        double owed = 0; // ticks due but not yet run
+        long lastPublish = last;
+        boolean stale = false; // changed since the last snapshot
+        while (running) {
+            boolean changed = runCommands();
+            if (unthrottled) {
+                long deadline = System.nanoTime() + PUBLISH_INTERVAL_NANOS;
+                do {
+                    runTicks(UNTHROTTLED_CHUNK);
+                } while (System.nanoTime() < deadline && commands.isEmpty());
+                publish();
+                last = System.nanoTime();
+                owed = 0;
+                continue;
+            }
+
+            double rate = ticksPerSecond;
+            long now = System.nanoTime();
+            // Never owe more than a quarter second of ticks, so a stall does not cause a burst.
+            owed = Math.min(owed + (now - last) * rate / 1e9, rate / 4 + 1);
+            last = now;
+            int due = (int) owed;
+            if (due > 0) {
+                runTicks(due);
+                owed -= due;
+                changed = true;
+            }
+            // A snapshot computes percentiles and copies the model, so at high rates
+            // publish at most once per interval rather than after every tick.
+            stale |= changed;
+            now = System.nanoTime();
+            if (stale && now - lastPublish >= PUBLISH_INTERVAL_NANOS) {
+                publish();
+                lastPublish = now;
+                stale = false;
+            }
+
+            long untilNextTick = (long) ((1.0 - owed) / rate * 1e9);
+            long wait = Math.min(untilNextTick, PUBLISH_INTERVAL_NANOS);
+            if (stale)
+                wait = Math.min(wait, lastPublish + PUBLISH_INTERVAL_NANOS - now);
+            LockSupport.parkNanos(Math.max(0, wait));
+        }
+    }
+
+    private void runTicks(int ticks) {
+        SimulationMonitor m = monitor;
+        if (m == null) {
+            sim.run(ticks);
+        } else {
+            long start = System.nanoTime();
+            sim.run(ticks);
+            m.record(sim, ticks, System.nanoTime() - start);
+        }
+        rateWindowTicks += ticks;
+    }
+
+    private boolean runCommands() {
+        boolean ran = false;
+        Consumer<HeadlessSimulation> command;
+        while ((command = commands.poll()) != null) {
+            command.accept(sim);
+            ran = true;
+        }
+        return ran;
+    }
+
+    private void publish() {
+        long now = System.nanoTime();
+        if (now - rateWindowStart >= 1_000_000_000L) {
+            measuredRate = rateWindowTicks * 1e9 / (now - rateWindowStart);
+            rateWindowStart = now;
+            rateWindowTicks = 0;
+        }
+        latest = new SimulationSnapshot(sim, measuredRate);
+    }
+}
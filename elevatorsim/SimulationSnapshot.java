@@ -0,0 +1,60 @@
+package elevatorsim;
+
+/**
+ * Immutable view of a HeadlessSimulation at one instant, published by the
+ * SimulationRunner thread and read by the UI. All fields are copied out of the
+ * model, so the UI never touches simulation objects the runner is mutating.
+ */
+public final class SimulationSnapshot {
+    private final int currentTime;
+    private final int elevatorFloor;
+    private final int elevatorState;
+    private final int queueSize;
+    private final long arrivals;
+    private final long deliveredCount;
+    private final double averageWait;
+    private final long waitP50;
+    private final long waitP90;
+    private final long waitP99;
+    private final long waitMax;
+    private final int floors;
+    private final int[] waitingPerFloor;
+    private final double ticksPerSecond;
+
+    public SimulationSnapshot(HeadlessSimulation sim, double ticksPerSecond) {
+        Elevator elevator = sim.getElevator();
+        LatencyHistogram waits = sim.getStats().getWaitTimes();
+        currentTime = sim.getCurrentTime();
+        elevatorFloor = elevator.getCurrentFloor();
+        elevatorState = elevator.getElevatorState();
+        queueSize = sim.getQueueSize();
+        arrivals = sim.getArrivals();
+        deliveredCount = sim.getDeliveredCount();
+        averageWait = waits.getMean();
+        waitP50 = waits.getValueAtPercentile(50);
+        waitP90 = waits.getValueAtPercentile(90);
+        waitP99 = waits.getValueAtPercentile(99);
+        waitMax = waits.getMax();
+        floors = sim.getFloors();
+        waitingPerFloor = sim.copyWaitingPerFloor();
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    public int getCurrentTime() { return currentTime; }
+    public int getElevatorFloor() { return elevatorFloor; }
+    public int getElevatorState() { return elevatorState; }
+    public int getQueueSize() { return queueSize; }
+    public long getArrivals() { return arrivals; }
+    public long getDeliveredCount() { return deliveredCount; }
+    public double getAverageWait() { return averageWait; }
+    public long getWaitP50() { return waitP50; }
+    public long getWaitP90() { return waitP90; }
+    public long getWaitP99() { return waitP99; }
+    public long getWaitMax() { return waitMax; }
+    public double getTicksPerSecond() { return ticksPerSecond; }
+
+    public int getFloors() { return floors; }
+
+    // Number of requests waiting at a floor in 1..floors.
+    public int getWaitingAt(int floor) { return waitingPerFloor[floor]; }
+}
@@ -0,0 +1,21 @@
+package elevatorsim;
+
+/**
+ * How much of a run a TraceLog records. Each level includes everything the
+ * levels before it record.
+ */
+public enum TraceLevel {
+    OFF,
+    TRIPS,   // pickups and drop-offs, with each passenger's wait and ride time
+    ALL;     // also arrivals and assignments
+
+    public static TraceLevel forName(String name) {
+        switch (name.toLowerCase()) {
+            case "off":   return OFF;
+            case "trips": return TRIPS;
+            case "all":   return ALL;
+            default:
+                throw new IllegalArgumentException("Unknown trace level: " + name);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package elevatorsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Binary event trace of a simulation run. The engine appends fixed-size records
+ * to a single-producer, single-consumer ring of longs, which costs a couple of
+ * array stores and no locks, allocation or I/O on the simulation thread. A
+ * daemon writer thread drains the ring in bulk to a file through a FileChannel.
+ *
+ * If the writer falls behind and the ring fills, new records are dropped rather
+ * than stalling the simulation; the drop count is kept in the file header.
+ * Only one thread may record into a TraceLog.
+ *
+ * File layout: a 32-byte header (magic "ELVT", version, record size, reserved,
+ * record count, dropped count) followed by 16-byte big-endian records of
+ * time (int), event (byte), car (24 bits, -1 for none), floor (int), value (int).
+ * TraceReader decodes it.
+ */
+public class TraceLog implements Closeable {
+    public static final int MAGIC = 0x454c5654; // "ELVT"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 16;
+
+    // Event codes. The value field holds the destination floor for arrivals and
+    // single-car assignments, the call direction for bank assignments, the wait
+    // time for pickups and the ride time for drop-offs.
+    public static final int ARRIVAL = 1;
+    public static final int ASSIGN = 2;
+    public static final int PICKUP = 3;
+    public static final int DROPOFF = 4;
+
+    public static final int NO_CAR = -1;
+
+    private static final int DEFAULT_CAPACITY = 1 << 18;     // records, 4 MB
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final TraceLevel level;
+    private final long[] ring;        // two longs per record
+    private final int mask;           // record capacity - 1
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * RECORD_SIZE);
+    private final Thread writer;
+
+    // Producer state; published is the only field the writer reads.
+    private long head;
+    private long cachedTail;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private long dropped;
+
+    private volatile boolean closing;
+    private long written;
+    private IOException failure;
+
+    public TraceLog(Path file, TraceLevel level) throws IOException {
+        this(file, level, DEFAULT_CAPACITY);
+    }
+
+    // capacity is the number of records the ring holds, rounded up to a power of two.
+    public TraceLog(Path file, TraceLevel level, int capacity) throws IOException {
+        if (capacity < 1 || capacity > (1 << 26))
+            throw new IllegalArgumentException("Trace capacity must be between 1 and 2^26 records");
+        int records = 1;
+        while (records < capacity)
+            records <<= 1;
+        this.level = level;
+        ring = new long[records * 2];
+        mask = records - 1;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        channel.position(HEADER_SIZE);
+
+        writer = new Thread(this::drainLoop, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public TraceLevel getLevel() { return level; }
+
+    public void arrival(int time, int sourceFloor, int destinationFloor) {
+        if (level == TraceLevel.ALL) record(time, ARRIVAL, NO_CAR, sourceFloor, destinationFloor);
+    }
+
+    public void assign(int time, int car, int floor, int value) {
+        if (level == TraceLevel.ALL) record(time, ASSIGN, car, floor, value);
+    }
+
+    public void pickup(int time, int car, int floor, int waitTicks) {
+        if (level != TraceLevel.OFF) record(time, PICKUP, car, floor, waitTicks);
+    }
+
+    public void dropoff(int time, int car, int floor, int rideTicks) {
+        if (level != TraceLevel.OFF) record(time, DROPOFF, car, floor, rideTicks);
+    }
+
+    // Appends one record, or counts it as dropped when the ring is full.
+    public void record(int time, int event, int car, int floor, int value) {
+        if (head - cachedTail > mask) {
+            cachedTail = consumed.get();
+            if (head - cachedTail > mask) {
+                dropped++;
+                return;
+            }
+        }
+        int slot = (int) (head & mask) << 1;
+        ring[slot] = ((long) time << 32) | ((long) (event & 0xff) << 24) | (car & 0xffffff);
+        ring[slot + 1] = ((long) floor << 32) | (value & 0xffffffffL);
+        head++;
+        published.lazySet(head);
+    }
+
+    public long getDroppedCount() { return dropped; }
+
+    // Stops the writer after it has drained every published record, then completes
+    // the header. Must be called from the recording thread.
+    @Override
+    public void close() throws IOException {
+        if (closing) return;
+        closing = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            if (failure == null) {
+                writeHeader();
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void drainLoop() {
+        try {
+            while (true) {
+                boolean finishing = closing; // read before draining so nothing published earlier is missed
+                if (drain() == 0) {
+                    if (finishing) return;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    // Writes every record published so far and returns how many there were.
+    private int drain() throws IOException {
+        long tail = consumed.get();
+        long end = published.get();
+        int count = 0;
+        while (tail < end) {
+            writeBuffer.clear();
+            while (tail < end && writeBuffer.remaining() >= RECORD_SIZE) {
+                int slot = (int) (tail & mask) << 1;
+                writeBuffer.putLong(ring[slot]).putLong(ring[slot + 1]);
+                tail++;
+                count++;
+            }
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining())
+                channel.write(writeBuffer);
+            consumed.lazySet(tail);
+        }
+        written += count;
+        return count;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0)
+              .putLong(written).putLong(dropped).flip();
+        long at = 0;
+        while (header.hasRemaining())
+            at += channel.write(header, at);
+    }
+}
@@ -0,0 +1,138 @@
+package elevatorsim;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential reader for trace files written by TraceLog, and a small tool that
+ * converts one to CSV.
+ *
+ * Usage: TraceReader <trace.bin> [output.csv]   (writes to standard output without a file)
+ */
+public class TraceReader implements Closeable {
+    private static final int READ_BUFFER_RECORDS = 4096;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_RECORDS * TraceLog.RECORD_SIZE);
+    private final long recordCount;
+    private final long droppedCount;
+
+    private int time;
+    private int event;
+    private int car;
+    private int floor;
+    private int value;
+
+    public TraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TraceLog.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+            header.flip();
+            if (header.remaining() < TraceLog.HEADER_SIZE || header.getInt() != TraceLog.MAGIC)
+                throw new IOException("Not a trace file: " + file);
+            int version = header.getInt();
+            if (version != TraceLog.VERSION)
+                throw new IOException("Unsupported trace version " + version);
+            if (header.getInt() != TraceLog.RECORD_SIZE)
+                throw new IOException("Unexpected trace record size");
+            header.getInt();
+            recordCount = header.getLong();
+            droppedCount = header.getLong();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        buffer.flip(); // empty until the first refill
+    }
+
+    // Number of records the header promises; zero if the writer never closed the file.
+    public long getRecordCount() { return recordCount; }
+    public long getDroppedCount() { return droppedCount; }
+
+    // Advances to the next record; returns false at the end of the file.
+    public boolean next() throws IOException {
+        if (buffer.remaining() < TraceLog.RECORD_SIZE) {
+            buffer.compact();
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) { }
+            buffer.flip();
+            if (buffer.remaining() < TraceLog.RECORD_SIZE)
+                return false;
+        }
+        long first = buffer.getLong();
+        long second = buffer.getLong();
+        time = (int) (first >>> 32);
+        event = (int) (first >>> 24) & 0xff;
+        car = ((int) first << 8) >> 8; // sign-extend the 24-bit car index
+        floor = (int) (second >>> 32);
+        value = (int) second;
+        return true;
+    }
+
+    public int getTime() { return time; }
+    public int getEvent() { return event; }
+    public int getCar() { return car; }
+    public int getFloor() { return floor; }
+    public int getValue() { return value; }
+
+    public static String eventName(int event) {
+        switch (event) {
+            case TraceLog.ARRIVAL: return "arrival";
+            case TraceLog.ASSIGN:  return "assign";
+            case TraceLog.PICKUP:  return "pickup";
+            case TraceLog.DROPOFF: return "dropoff";
+            default:               return "unknown";
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Writes every record as a CSV line and returns the number written.
+    public long writeCsv(Writer out) throws IOException {
+        out.write("time,event,car,floor,value\n");
+        long count = 0;
+        while (next()) {
+            out.write(time + "," + eventName(event) + "," + car + "," + floor + "," + value + "\n");
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: TraceReader <trace.bin> [output.csv]");
+            return;
+        }
+        try (TraceReader reader = new TraceReader(Paths.get(args[0]))) {
+            long count;
+            if (args.length == 2) {
+                try (Writer out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                    count = reader.writeCsv(out);
+                }
+            } else {
+                // Only flushed (by writeCsv): closing the writer would close System.out.
+                count = reader.writeCsv(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+            }
+            if (count != reader.getRecordCount())
+                System.err.println("Warning: header lists " + reader.getRecordCount() + " records, read " + count);
+            if (reader.getDroppedCount() > 0)
+                System.err.println("Warning: " + reader.getDroppedCount() + " records were dropped while tracing");
+        } catch (IOException e) {
+            System.err.println("Could not read trace: " + e.getMessage());
+        }
+    }
+}
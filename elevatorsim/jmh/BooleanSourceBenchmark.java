@@ -0,0 +1,42 @@
+package elevatorsim.jmh;
+
+import elevatorsim.BooleanSource;
+import elevatorsim.RandomSource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BooleanSource.requestArrived(), the arrival draw made once per tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BooleanSourceBenchmark {
+    @Param({"0.01", "0.1", "0.5"})
+    public double probability;
+
+    private BooleanSource source;
+
+    @Setup
+    public void setUp() {
+        source = new BooleanSource(probability, new RandomSource(1));
+    }
+
+    @Benchmark
+    public boolean requestArrived() {
+        return source.requestArrived();
+    }
+}
@@ -0,0 +1,58 @@
+package elevatorsim.jmh;
+
+import elevatorsim.Elevator;
+import elevatorsim.RandomSource;
+import elevatorsim.SimStats;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Elevator.shift(): one elevator serving a fixed cycle of requests, given the
+ * next one whenever it goes idle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElevatorBenchmark {
+    private static final int FLOORS = 20;
+    private static final int CYCLE = 1024;
+
+    private final int[] sources = new int[CYCLE];
+    private final int[] destinations = new int[CYCLE];
+    private Elevator elevator;
+    private SimStats stats;
+    private int time;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        new RandomSource(1).fillFloorPairs(FLOORS, sources, destinations, CYCLE);
+        elevator = new Elevator();
+        stats = new SimStats();
+        time = 0;
+        next = 0;
+    }
+
+    @Benchmark
+    public int shift() {
+        if (!elevator.hasRequest()) {
+            elevator.assign(sources[next], destinations[next], time);
+            next = (next + 1) & (CYCLE - 1);
+        }
+        elevator.shift(++time, stats);
+        return elevator.getCurrentFloor();
+    }
+}
@@ -0,0 +1,63 @@
+package elevatorsim.jmh;
+
+import elevatorsim.Request;
+import elevatorsim.RequestQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * RequestQueue in steady state: every operation enqueues one request and
+ * removes one on top of a fixed backlog, through the primitive methods and
+ * through the Request-object adapters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestQueueBenchmark {
+    private static final int FLOORS = 20;
+
+    @Param({"0", "1000", "1000000"})
+    public int backlog;
+
+    private final Request request = new Request(1, 2, 0);
+    private RequestQueue queue;
+    private int i;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = new RequestQueue();
+        for (int n = 0; n < backlog; n++)
+            queue.enqueue(n % FLOORS + 1, (n * 7) % FLOORS + 1, n);
+        i = 0;
+    }
+
+    @Benchmark
+    public int enqueueRemove() {
+        i++;
+        queue.enqueue(i % FLOORS + 1, FLOORS - i % FLOORS, i);
+        int destination = queue.peekDestinationFloor();
+        queue.remove();
+        return destination;
+    }
+
+    @Benchmark
+    public void enqueueDequeue(Blackhole sink) {
+        queue.enqueue(request);
+        sink.consume(queue.dequeue());
+    }
+}
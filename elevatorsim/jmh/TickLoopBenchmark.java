@@ -0,0 +1,61 @@
+package elevatorsim.jmh;
+
+import elevatorsim.EventSimulation;
+import elevatorsim.HeadlessSimulation;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The full tick loop of HeadlessSimulation, and of EventSimulation for
+ * comparison, at several arrival probabilities. Scores are ticks per second.
+ * A fresh simulation per iteration keeps overloaded runs from carrying an
+ * ever-growing backlog into later iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickLoopBenchmark {
+    private static final int FLOORS = 20;
+    private static final int TICKS = 1000; // per invocation, so timing overhead stays out of the score
+
+    @Param({"0.01", "0.05", "0.3"})
+    public double probability;
+
+    private HeadlessSimulation headless;
+    private EventSimulation events;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        headless = new HeadlessSimulation(FLOORS, probability, 1L);
+        events = new EventSimulation(FLOORS, probability, 1L);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public int headless() {
+        headless.run(TICKS);
+        return headless.getQueueSize();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public int events() {
+        events.run(TICKS);
+        return events.getQueueSize();
+    }
+}
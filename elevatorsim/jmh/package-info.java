@@ -0,0 +1,14 @@
+/**
+ * JMH benchmarks for the simulation hot paths, as a baseline for ticks/sec and
+ * allocation rate before larger buildings are pushed through the model.
+ *
+ * Build and run them with the GC profiler, which adds gc.alloc.rate.norm
+ * (bytes allocated per operation) to every result:
+ *
+ *   mvn -f elevatorsim/pom.xml package
+ *   java -jar elevatorsim/target/benchmarks.jar -prof gc
+ *
+ * A regular expression selects benchmarks and -p overrides a parameter, e.g.
+ * {@code java -jar elevatorsim/target/benchmarks.jar TickLoop -p probability=0.05 -prof gc}.
+ */
+package elevatorsim.jmh;
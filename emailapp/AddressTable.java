@@ -0,0 +1,80 @@
+package main.java.com.emailapp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares addresses between emails, so a sender or recipient named on thousands
+ * of messages is held once. A line naming one address is kept as that address's
+ * shared String. A line naming several is kept as its parts, the addresses and
+ * the separators between them, each shared: recipient lists are mostly
+ * combinations seen once, while the addresses in them repeat. line() rebuilds
+ * the line exactly.
+ *
+ * Entries are never removed. To keep unusual input from growing the table without
+ * limit, long addresses are not shared, and once the table is full new ones are
+ * kept as they are.
+ */
+final class AddressTable {
+    private static final int MAX_ENTRIES = 1 << 20;
+    private static final int MAX_LENGTH = 256;
+    private static final ConcurrentHashMap<String, String> addresses = new ConcurrentHashMap<>();
+
+    private AddressTable() {
+    }
+
+    // An address line in the form an Email keeps it: a String, or a String[] of its parts.
+    static Object intern(String line) {
+        if (line == null)
+            return null;
+        int count = split(line, null);
+        if (count <= 1)
+            return share(line);
+        String[] parts = new String[count];
+        split(line, parts);
+        return parts;
+    }
+
+    // The line given to intern().
+    static String line(Object interned) {
+        if (interned instanceof String[])
+            return String.join("", (String[]) interned);
+        return (String) interned;
+    }
+
+    // Splits a line into runs of address and separator characters (the separators
+    // DeliveryQueue splits on), storing them shared when parts is not null.
+    // Returns the number of runs.
+    private static int split(String line, String[] parts) {
+        int count = 0;
+        int start = 0;
+        for (int i = 1; i <= line.length(); i++) {
+            if (i == line.length() || isSeparator(line.charAt(i)) != isSeparator(line.charAt(i - 1))) {
+                if (parts != null)
+                    parts[count] = share(line.substring(start, i));
+                count++;
+                start = i;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';' || Character.isWhitespace(c);
+    }
+
+    private static String share(String address) {
+        if (address.length() > MAX_LENGTH)
+            return address;
+        String shared = addresses.get(address);
+        if (shared != null)
+            return shared;
+        if (addresses.size() >= MAX_ENTRIES)
+            return address;
+        shared = addresses.putIfAbsent(address, address);
+        return (shared != null) ? shared : address;
+    }
+
+    static int size() {
+        return addresses.size();
+    }
+}
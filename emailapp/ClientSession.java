@@ -0,0 +1,273 @@
+package main.java.com.emailapp;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Server side of the line protocol for one client, independent of how lines are
+ * read and written. The server feeds it one received line at a time and it
+ * answers through an Output, so the same state machine drives both the
+ * thread-per-connection server and the non-blocking one.
+ *
+ * Once the client has switched to framed mode (see FramedProtocol) the server
+ * feeds it frames instead, and each flush() closes one reply frame.
+ */
+class ClientSession {
+    // Receives reply lines, without line terminators. flush() is called once each
+    // reply is complete, so an Output can buffer the lines until then.
+    interface Output {
+        void println(String line);
+
+        default void flush() {
+        }
+    }
+
+    private enum State { LOGIN, COMMAND, COMPOSE_TO, COMPOSE_CC, COMPOSE_BCC, COMPOSE_SUBJECT, COMPOSE_BODY, CLOSED }
+
+    private final Function<String, Mailbox> mailboxes;
+    private final Consumer<Email> deliveries;
+    private final Output out;
+    private State state = State.LOGIN;
+    private String username;
+    private Mailbox mailbox;
+    private boolean framed;
+    private boolean framingRequested; // takes effect once the acknowledgement has been flushed
+
+    // Fields of the email being composed
+    private String to, cc, bcc, subject;
+
+    // mailboxes returns the mailbox of a user, creating it on first login; composed
+    // emails are handed to deliveries.
+    public ClientSession(Function<String, Mailbox> mailboxes, Consumer<Email> deliveries, Output out) {
+        this.mailboxes = mailboxes;
+        this.deliveries = deliveries;
+        this.out = out;
+    }
+
+    public void start() {
+        out.println("Welcome to the Email Server. Please log in with: LOGIN <username>");
+        out.flush();
+    }
+
+    public boolean isClosed() { return state == State.CLOSED; }
+    public String getUsername() { return username; }
+
+    // Whether input now arrives as frames and each reply must leave as one frame.
+    public boolean isFramed() { return framed; }
+
+    // Handles one line received from the client.
+    public void onLine(String line) {
+        handle(line);
+        out.flush();
+        if (framingRequested) {
+            framingRequested = false;
+            framed = true;
+        }
+    }
+
+    // Handles one frame received in framed mode; its reply is flushed as one frame.
+    public void onFrame(String payload) {
+        int newline = payload.indexOf('\n');
+        if (state == State.COMMAND && newline >= 0 && payload.substring(0, newline).trim().equalsIgnoreCase("COMPOSE"))
+            composeFrame(payload.substring(newline + 1));
+        else
+            handle(payload);
+        out.flush();
+    }
+
+    private void handle(String line) {
+        switch (state) {
+            case COMPOSE_TO:
+                to = line;
+                out.println("Enter CC (optional):");
+                state = State.COMPOSE_CC;
+                return;
+            case COMPOSE_CC:
+                cc = line;
+                out.println("Enter BCC (optional):");
+                state = State.COMPOSE_BCC;
+                return;
+            case COMPOSE_BCC:
+                bcc = line;
+                out.println("Enter subject:");
+                state = State.COMPOSE_SUBJECT;
+                return;
+            case COMPOSE_SUBJECT:
+                subject = line;
+                out.println("Enter body:");
+                state = State.COMPOSE_BODY;
+                return;
+            case COMPOSE_BODY:
+                finishCompose(line);
+                return;
+            case CLOSED:
+                return;
+            default:
+                break;
+        }
+
+        line = line.trim();
+        if (line.isEmpty())
+            return;
+
+        if (state == State.LOGIN) {
+            if (line.toUpperCase().startsWith("LOGIN")) {
+                String[] tokens = line.split("\\s+");
+                if (tokens.length >= 2) {
+                    // Get or create mailbox for this user
+                    try {
+                        mailbox = mailboxes.apply(tokens[1]);
+                    } catch (UncheckedIOException e) {
+                        System.err.println("Could not open mailbox of " + tokens[1] + ": " + e.getMessage());
+                        out.println("Mailbox unavailable, please try again later.");
+                        return;
+                    }
+                    username = tokens[1];
+                    state = State.COMMAND;
+                    out.println("Logged in as " + username);
+                    out.println("Commands: COMPOSE, INBOX [offset] [limit], VIEW <index>, SEARCH <words>, QUIT");
+                } else {
+                    out.println("Invalid login command. Usage: LOGIN <username>");
+                }
+            } else {
+                out.println("Please log in first with: LOGIN <username>");
+            }
+        } else {
+            // Process commands for a logged-in user
+            if (line.equalsIgnoreCase("QUIT")) {
+                out.println("Goodbye!");
+                state = State.CLOSED;
+            } else if (line.toUpperCase().startsWith("INBOX")) {
+                listInbox(line);
+            } else if (line.toUpperCase().startsWith("VIEW")) {
+                viewEmail(line);
+            } else if (line.toUpperCase().startsWith("SEARCH")) {
+                search(line.substring("SEARCH".length()));
+            } else if (line.equalsIgnoreCase(FramedProtocol.COMMAND)) {
+                if (framed) {
+                    out.println("Already in framed mode.");
+                } else {
+                    out.println(FramedProtocol.ACK);
+                    framingRequested = true;
+                }
+            } else if (line.equalsIgnoreCase("COMPOSE")) {
+                out.println("Composing a new email.");
+                out.println("Enter recipient (TO):");
+                state = State.COMPOSE_TO;
+            } else {
+                out.println("Unknown command. Available commands: COMPOSE, INBOX [offset] [limit], VIEW <index>, SEARCH <words>, QUIT");
+            }
+        }
+    }
+
+    // INBOX lists everything; INBOX <offset> [limit] lists one page, numbered as in the full listing.
+    private void listInbox(String command) {
+        String[] tokens = command.split("\\s+");
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        try {
+            if (tokens.length > 1)
+                offset = Integer.parseInt(tokens[1]);
+            if (tokens.length > 2)
+                limit = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            offset = -1;
+        }
+        if (offset < 0 || limit < 1) {
+            out.println("Usage: INBOX [offset] [limit]");
+            return;
+        }
+
+        Folder inbox = mailbox.getFolder("Inbox");
+        List<Email> emails = (inbox == null) ? List.of() : inbox.getEmails(); // one snapshot for the whole listing
+        if (emails.isEmpty()) {
+            out.println("Inbox is empty.");
+            return;
+        }
+        if (offset >= emails.size()) {
+            out.println("No emails at offset " + offset + "; the inbox has " + emails.size() + ".");
+            return;
+        }
+        int end = (int) Math.min(emails.size(), (long) offset + limit);
+        for (int i = offset; i < end; i++) {
+            out.println((i + 1) + ": " + emails.get(i).toString());
+        }
+        if (offset > 0 || end < emails.size())
+            out.println("Showing " + (offset + 1) + "-" + end + " of " + emails.size() + ".");
+    }
+
+    private void viewEmail(String command) {
+        String[] tokens = command.split("\\s+");
+        if (tokens.length < 2) {
+            out.println("Usage: VIEW <index>");
+            return;
+        }
+        try {
+            int index = Integer.parseInt(tokens[1]) - 1;
+            Folder inbox = mailbox.getFolder("Inbox");
+            List<Email> emails = (inbox == null) ? List.of() : inbox.getEmails();
+            if (index < 0 || index >= emails.size()) {
+                out.println("Invalid email index.");
+            } else {
+                Email email = emails.get(index);
+                String from = email.getFrom();
+                out.println("From: " + from);
+                out.println("To: " + email.getTo());
+                out.println("CC: " + email.getCc());
+                // Blind copies are visible to the sender only.
+                out.println("BCC: " + ((from == null || from.equals(username)) ? email.getBcc() : ""));
+                out.println("Subject: " + email.getSubject());
+                out.println("Body: " + email.getBody());
+                out.println("Timestamp: " + email.getTimestamp().getTime());
+            }
+        } catch (NumberFormatException e) {
+            out.println("Invalid index format.");
+        }
+    }
+
+    // Lists the inbox emails matching the query, numbered as INBOX numbers them.
+    private void search(String text) {
+        SearchIndex.Query query;
+        try {
+            query = SearchIndex.Query.parse(text);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            out.println("Usage: SEARCH <words> [FROM:<name>] [SUBJECT:<word>] [SINCE:yyyy-mm-dd] [BEFORE:yyyy-mm-dd]");
+            return;
+        }
+        Folder inbox = mailbox.getFolder("Inbox");
+        List<Email> emails = (inbox == null) ? List.of() : inbox.getEmails();
+        int[] positions = (inbox == null) ? new int[0]
+                : inbox.search(query).stream().mapToInt(emails::indexOf).filter(i -> i >= 0).sorted().toArray();
+        if (positions.length == 0) {
+            out.println("No matching emails.");
+            return;
+        }
+        for (int i : positions)
+            out.println((i + 1) + ": " + emails.get(i).toString());
+    }
+
+    // A single-frame COMPOSE: TO, CC, BCC and subject lines, then the body.
+    private void composeFrame(String email) {
+        String[] fields = email.split("\n", 5);
+        if (fields.length < 5) {
+            out.println("Usage: a COMPOSE frame holds COMPOSE, TO, CC, BCC and subject lines, then the body.");
+            return;
+        }
+        to = fields[0];
+        cc = fields[1];
+        bcc = fields[2];
+        subject = fields[3];
+        finishCompose(fields[4]);
+    }
+
+    private void finishCompose(String body) {
+        Email email = new Email(username, to, cc, bcc, subject, body, System.currentTimeMillis());
+        to = cc = bcc = subject = null;
+        state = State.COMMAND;
+        deliveries.accept(email);
+        out.println("Email queued for delivery.");
+    }
+}
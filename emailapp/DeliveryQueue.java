@@ -0,0 +1,223 @@
+package main.java.com.emailapp;
+
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Delivers composed emails to their recipients' inboxes on a background thread,
+ * so COMPOSE returns as soon as the message is queued, however many recipients
+ * it has.
+ *
+ * The worker takes everything queued so far as one round. It parses each
+ * message's TO, CC and BCC lists once (a recipient named twice gets one copy)
+ * and groups the round by recipient, so every mailbox receives all of its new
+ * messages in a single visit. Recipients are served BATCH_SIZE at a time: the
+ * batch is appended to the mailbox logs without waiting, then awaited together,
+ * so a large distribution list costs a few group commits rather than one per
+ * recipient. All recipients share one Email object, whose contents are moved
+ * to the message store and indexed for search once before the fan-out.
+ *
+ * Only existing mailboxes receive mail: a recipient without one is collected,
+ * and the sender gets one bounce email listing them. Recipient lists are parsed
+ * only here, so submitting costs the session thread nothing however long they are.
+ * An email that cannot be stored or indexed is bounced to its sender as well;
+ * the rest of the round is still delivered and the worker keeps running.
+ */
+class DeliveryQueue implements Closeable {
+    private static final int BATCH_SIZE = 256;
+    private static final String POSTMASTER = "postmaster";
+    private static final Pattern ADDRESS_SEPARATOR = Pattern.compile("[\\s,;]+");
+
+    private final Function<String, Mailbox> mailboxes;
+    private final MailStore store;
+    private final LinkedBlockingQueue<Email> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    // mailboxes returns the mailbox of an existing user, or null; it must not create one.
+    DeliveryQueue(Function<String, Mailbox> mailboxes, MailStore store) {
+        this.mailboxes = mailboxes;
+        this.store = store;
+        worker = new Thread(this::run, "delivery");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Queues an email for delivery to everyone it is addressed to.
+    void submit(Email email) {
+        if (closed)
+            throw new IllegalStateException("Delivery queue is closed");
+        queue.add(email);
+    }
+
+    // Delivers whatever is still queued and stops the worker.
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Email> round = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Email first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                round.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(round);
+            try {
+                deliver(round);
+            } catch (RuntimeException e) {
+                System.err.println("Delivery round failed: " + e);
+            }
+            round.clear();
+        }
+    }
+
+    private void deliver(List<Email> round) {
+        Map<String, Mailbox> found = new HashMap<>(); // null for unknown recipients
+        Map<String, List<Email>> byRecipient = new LinkedHashMap<>();
+        Map<Email, String[]> terms = new IdentityHashMap<>();
+        for (Email email : round) {
+            try {
+                route(email, found, byRecipient, terms);
+            } catch (RuntimeException e) {
+                System.err.println("Could not deliver an email from " + email.getFrom() + ": " + e);
+                bounce(email, "Your email could not be delivered because of a server error.",
+                        found, byRecipient, terms);
+            }
+        }
+
+        List<Folder> batch = new ArrayList<>(BATCH_SIZE);
+        long[] sequences = new long[BATCH_SIZE];
+        for (Map.Entry<String, List<Email>> entry : byRecipient.entrySet()) {
+            try {
+                Folder inbox = found.get(entry.getKey()).getFolder("Inbox");
+                if (inbox == null) {
+                    System.err.println("Could not deliver to " + entry.getKey() + ": no Inbox");
+                    continue;
+                }
+                sequences[batch.size()] = inbox.deliver(entry.getValue(), terms::get);
+                batch.add(inbox);
+            } catch (RuntimeException e) {
+                System.err.println("Could not deliver to " + entry.getKey() + ": " + e);
+            }
+            if (batch.size() == BATCH_SIZE)
+                awaitBatch(batch, sequences);
+        }
+        awaitBatch(batch, sequences);
+    }
+
+    // Sorts one email of the round under its existing recipients and bounces the
+    // unknown ones back to the sender.
+    private void route(Email email, Map<String, Mailbox> found, Map<String, List<Email>> byRecipient,
+                       Map<Email, String[]> terms) {
+        Set<String> recipients = recipients(email);
+        List<String> unknown = new ArrayList<>();
+        for (Iterator<String> it = recipients.iterator(); it.hasNext(); ) {
+            String recipient = it.next();
+            if (lookup(found, recipient) == null) {
+                unknown.add(recipient);
+                it.remove();
+            }
+        }
+        if (!unknown.isEmpty() && !bounce(email, "Your email could not be delivered to these recipients, "
+                + "who have no mailbox:\n" + String.join("\n", unknown), found, byRecipient, terms))
+            System.err.println("Could not deliver to " + String.join(", ", unknown) + ": no such users");
+        if (recipients.isEmpty()) {
+            if (unknown.isEmpty())
+                System.err.println("Dropped an email from " + email.getFrom() + " without recipients");
+            return;
+        }
+        add(email, recipients, byRecipient, terms);
+    }
+
+    // Tells the sender, in one email to their inbox, why their email was not delivered.
+    // Returns false if the sender has no mailbox or the bounce itself cannot be stored.
+    private boolean bounce(Email email, String reason, Map<String, Mailbox> found,
+                           Map<String, List<Email>> byRecipient, Map<Email, String[]> terms) {
+        String sender = email.getFrom();
+        try {
+            if (sender == null || lookup(found, sender) == null)
+                return false;
+            Email bounce = new Email(POSTMASTER, sender, "", "", "Undeliverable: " + email.getSubject(),
+                    reason, System.currentTimeMillis());
+            add(bounce, Set.of(sender), byRecipient, terms);
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Could not bounce an email to " + sender + ": " + e);
+            return false;
+        }
+    }
+
+    // Stores and indexes an email, then files it under each recipient. Recipients are
+    // only recorded once both succeed, so a failure leaves nothing half-queued.
+    private void add(Email email, Set<String> recipients, Map<String, List<Email>> byRecipient,
+                     Map<Email, String[]> terms) {
+        terms.put(email, SearchIndex.terms(email));
+        store.storeMessage(email);
+        for (String recipient : recipients)
+            byRecipient.computeIfAbsent(recipient, r -> new ArrayList<>(1)).add(email);
+    }
+
+    // Mailbox of a recipient, looked up once per round; null if there is none.
+    private Mailbox lookup(Map<String, Mailbox> found, String user) {
+        if (found.containsKey(user))
+            return found.get(user);
+        Mailbox mailbox;
+        try {
+            mailbox = mailboxes.apply(user);
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not open mailbox of " + user + ": " + e.getMessage());
+            mailbox = null;
+        }
+        found.put(user, mailbox);
+        return mailbox;
+    }
+
+    private static void awaitBatch(List<Folder> batch, long[] sequences) {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                batch.get(i).awaitDurable(sequences[i]);
+            } catch (UncheckedIOException e) {
+                System.err.println("Delivery may be lost: " + e.getMessage());
+            }
+        }
+        batch.clear();
+    }
+
+    // Distinct recipient names across the TO, CC and BCC lists, in order.
+    private static Set<String> recipients(Email email) {
+        Set<String> recipients = new LinkedHashSet<>();
+        for (String list : new String[] {email.getTo(), email.getCc(), email.getBcc()}) {
+            if (list == null)
+                continue;
+            for (String address : ADDRESS_SEPARATOR.split(list.trim())) {
+                if (!address.isEmpty())
+                    recipients.add(address);
+            }
+        }
+        return recipients;
+    }
+}
@@ -1,36 +1,207 @@
 package main.java.com.emailapp;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.GregorianCalendar;
 
 /**
- * Represents an email with recipients, subject, body, and timestamp.
+ * Represents an email with sender, recipients, subject, body, and timestamp.
+ *
+ * On the server an email is written to a MessageStore when it is first added to
+ * a persisted folder. From then on only the subject, timestamp and locator stay
+ * on the heap, and the addresses and body are read from the store on request.
+ *
+ * The representation is kept small: the timestamp is epoch millis, addresses
+ * are shared through the AddressTable and the body is held as UTF-8 bytes.
+ * getTimestamp() builds a calendar on each call; code that only needs the
+ * instant uses getTimestampMillis(). The serialized form is unchanged.
  */
 public class Email implements Serializable {
     private static final long serialVersionUID = 1L;
-    private String to, cc, bcc, subject, body;
-    private GregorianCalendar timestamp;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("from", String.class),
+        new ObjectStreamField("to", String.class),
+        new ObjectStreamField("cc", String.class),
+        new ObjectStreamField("bcc", String.class),
+        new ObjectStreamField("subject", String.class),
+        new ObjectStreamField("body", String.class),
+        new ObjectStreamField("timestamp", GregorianCalendar.class),
+        new ObjectStreamField("stored", boolean.class),
+        new ObjectStreamField("locator", long.class)
+    };
+    private static final DateTimeFormatter SUMMARY_FORMAT =
+            DateTimeFormatter.ofPattern("hh:mm a MM/dd/yyyy").withZone(ZoneId.systemDefault());
+    private Object from, to, cc, bcc; // address lines as AddressTable.intern() returns them
+    private String subject;
+    private byte[] body; // UTF-8
+    private long timestamp; // epoch millis
+    private boolean stored;
+    private long locator;
+    private transient MessageStore store;
+    private transient String summary; // toString(), built on first use
 
     public Email(String to, String cc, String bcc, String subject, String body) {
-        this.to = to;
-        this.cc = cc;
-        this.bcc = bcc;
+        this(null, to, cc, bcc, subject, body, System.currentTimeMillis());
+    }
+
+    // Recreates a stored email with its original timestamp.
+    public Email(String to, String cc, String bcc, String subject, String body, GregorianCalendar timestamp) {
+        this(null, to, cc, bcc, subject, body, timestamp.getTimeInMillis());
+    }
+
+    public Email(String from, String to, String cc, String bcc, String subject, String body,
+                 GregorianCalendar timestamp) {
+        this(from, to, cc, bcc, subject, body, timestamp.getTimeInMillis());
+    }
+
+    Email(String from, String to, String cc, String bcc, String subject, String body, long timestamp) {
+        this.from = AddressTable.intern(from);
+        this.to = AddressTable.intern(to);
+        this.cc = AddressTable.intern(cc);
+        this.bcc = AddressTable.intern(bcc);
+        this.subject = subject;
+        this.body = encode(body);
+        this.timestamp = timestamp;
+    }
+
+    // Recreates an email whose contents are in a message store.
+    Email(MessageStore store, long locator, String subject, long timestamp) {
         this.subject = subject;
-        this.body = body;
-        this.timestamp = new GregorianCalendar();
+        this.timestamp = timestamp;
+        this.stored = true;
+        this.locator = locator;
+        this.store = store;
     }
 
-    public String getTo() { return to; }
-    public String getCc() { return cc; }
-    public String getBcc() { return bcc; }
+    public String getFrom() { return stored ? read(MessageStore.FROM) : AddressTable.line(from); }
+    public String getTo() { return stored ? read(MessageStore.TO) : AddressTable.line(to); }
+    public String getCc() { return stored ? read(MessageStore.CC) : AddressTable.line(cc); }
+    public String getBcc() { return stored ? read(MessageStore.BCC) : AddressTable.line(bcc); }
     public String getSubject() { return subject; }
-    public String getBody() { return body; }
-    public GregorianCalendar getTimestamp() { return timestamp; }
+    public String getBody() { return stored ? read(MessageStore.BODY) : decode(body); }
+
+    public GregorianCalendar getTimestamp() {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(timestamp);
+        return calendar;
+    }
+
+    long getTimestampMillis() { return timestamp; }
+
+    boolean isStored() { return stored; }
+    long getLocator() { return locator; }
+
+    // Switches to reading the contents from the store, releasing the in-memory copies.
+    void setStored(MessageStore store, long locator) {
+        this.store = store;
+        this.locator = locator;
+        stored = true;
+        from = to = cc = bcc = null;
+        body = null;
+    }
+
+    // Reconnects an email loaded from a snapshot to its store.
+    void setMessageStore(MessageStore store) {
+        this.store = store;
+    }
+
+    private String read(int field) {
+        if (store == null)
+            throw new IllegalStateException("Email contents are in a message store that is not open");
+        return store.read(locator, field);
+    }
+
+    private static byte[] encode(String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] value) {
+        return (value == null) ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    // Writes this email for a MailboxCodec; previous is the timestamp of the email
+    // written before it in the same folder.
+    void encode(MailboxCodec.Encoder out, long previous) throws IOException {
+        out.putByte(stored ? 1 : 0);
+        out.putZigzag(timestamp - previous);
+        out.putString(subject);
+        if (stored) {
+            out.putVarlong(locator);
+        } else {
+            putLine(out, from);
+            putLine(out, to);
+            putLine(out, cc);
+            putLine(out, bcc);
+            out.putBytes(body);
+        }
+    }
+
+    // Writes an address line as AddressTable.intern() returned it, without rebuilding it.
+    private static void putLine(MailboxCodec.Encoder out, Object line) throws IOException {
+        if (line instanceof String[])
+            out.putString((String[]) line);
+        else
+            out.putString((String) line);
+    }
+
+    static Email decode(MailboxCodec.Decoder in, long previous) throws IOException {
+        int flags = in.getByte();
+        long timestamp = previous + in.getZigzag();
+        String subject = in.getString();
+        if ((flags & 1) != 0)
+            return new Email(null, in.getVarlong(), subject, timestamp); // the store is attached later
+        Email email = new Email(null, null, null, null, subject, (String) null, timestamp);
+        email.from = AddressTable.intern(in.getString());
+        email.to = AddressTable.intern(in.getString());
+        email.cc = AddressTable.intern(in.getString());
+        email.bcc = AddressTable.intern(in.getString());
+        email.body = in.getBytes();
+        return email;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("from", AddressTable.line(from));
+        fields.put("to", AddressTable.line(to));
+        fields.put("cc", AddressTable.line(cc));
+        fields.put("bcc", AddressTable.line(bcc));
+        fields.put("subject", subject);
+        fields.put("body", decode(body));
+        fields.put("timestamp", getTimestamp());
+        fields.put("stored", stored);
+        fields.put("locator", locator);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        from = AddressTable.intern((String) fields.get("from", null));
+        to = AddressTable.intern((String) fields.get("to", null));
+        cc = AddressTable.intern((String) fields.get("cc", null));
+        bcc = AddressTable.intern((String) fields.get("bcc", null));
+        subject = (String) fields.get("subject", null);
+        body = encode((String) fields.get("body", null));
+        GregorianCalendar calendar = (GregorianCalendar) fields.get("timestamp", null);
+        timestamp = (calendar == null) ? 0 : calendar.getTimeInMillis();
+        stored = fields.get("stored", false);
+        locator = fields.get("locator", 0L);
+    }
 
+    // The INBOX summary line, formatted once and kept for later listings.
     @Override
     public String toString() {
-        SimpleDateFormat sdf = new SimpleDateFormat("hh:mm a MM/dd/yyyy");
-        return "[" + sdf.format(timestamp.getTime()) + "] " + subject;
+        String s = summary;
+        if (s == null) {
+            s = "[" + SUMMARY_FORMAT.format(Instant.ofEpochMilli(timestamp)) + "] " + subject;
+            summary = s;
+        }
+        return s;
     }
 }
@@ -2,16 +2,99 @@ package main.java.com.emailapp;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.Charset;
 import java.util.Scanner;
 
 /**
  * A simple command-line client that connects to the EmailServer via sockets.
+ *
+ * Run with --framed to log in and switch the connection to framed mode (see
+ * FramedProtocol): commands are then sent without waiting for replies, and
+ * COMPOSE asks for the whole email locally and sends it as a single frame.
+ * Programs can use an instance directly to pipeline many commands:
+ *
+ *   client.login("alice"); client.startFraming();
+ *   for (...) client.compose(to, "", "", subject, body);
+ *   client.flush();
+ *   for (...) client.receive();
  */
-public class EmailClientSocket {
+public class EmailClientSocket implements Closeable {
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 5000;
+    private static final int MAX_REPLY_BYTES = 64 << 20;
+
+    private final Socket socket;
+    private final BufferedInputStream in;
+    private final BufferedOutputStream out;
+    private final Charset charset = Charset.defaultCharset();
+    private boolean framed;
+
+    public EmailClientSocket(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    // Reads the welcome line and logs in; returns false if the server refused.
+    public boolean login(String username) throws IOException {
+        readLine();
+        sendLine("LOGIN " + username);
+        String reply = readLine();
+        if (reply == null || !reply.startsWith("Logged in as"))
+            return false;
+        readLine(); // list of commands
+        return true;
+    }
+
+    // Switches to framed mode; only possible once logged in.
+    public void startFraming() throws IOException {
+        sendLine(FramedProtocol.COMMAND);
+        String reply = readLine();
+        if (!FramedProtocol.ACK.equals(reply))
+            throw new IOException("Server refused framed mode: " + reply);
+        framed = true;
+    }
+
+    // Queues one command; nothing leaves before flush(), so many can be sent at once.
+    public void send(String command) throws IOException {
+        if (!framed)
+            throw new IllegalStateException("Not in framed mode");
+        FramedProtocol.write(out, command);
+    }
+
+    // Queues a whole email as one command. The body may span lines.
+    public void compose(String to, String cc, String bcc, String subject, String body) throws IOException {
+        send(FramedProtocol.compose(to, cc, bcc, subject, body));
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // Reply to the oldest command not yet answered, its lines joined by \n; null once disconnected.
+    public String receive() throws IOException {
+        return FramedProtocol.read(in, MAX_REPLY_BYTES);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void sendLine(String line) throws IOException {
+        out.write((line + System.lineSeparator()).getBytes(charset));
+        out.flush();
+    }
+
+    private String readLine() throws IOException {
+        return FramedProtocol.readLine(in, charset);
+    }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--framed")) {
+            runFramed();
+            return;
+        }
         try (Socket socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
              PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
              BufferedReader in  = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -42,5 +125,79 @@ public class EmailClientSocket {
             System.err.println("Client error: " + e.getMessage());
         }
     }
-}
 
+    private static void runFramed() {
+        try (EmailClientSocket client = new EmailClientSocket(SERVER_ADDRESS, SERVER_PORT);
+             Scanner scanner = new Scanner(System.in)) {
+            System.out.println("Username:");
+            if (!scanner.hasNextLine())
+                return;
+            if (!client.login(scanner.nextLine().trim())) {
+                System.out.println("Login failed.");
+                return;
+            }
+            client.startFraming();
+            System.out.println("Logged in (framed mode). Commands: COMPOSE, INBOX [offset] [limit], VIEW <index>, SEARCH <words>, QUIT");
+
+            // Replies arrive in the order the commands were sent
+            Thread listener = new Thread(() -> {
+                try {
+                    String reply;
+                    while ((reply = client.receive()) != null) {
+                        if (!reply.isEmpty())
+                            System.out.println(reply);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Disconnected from server.");
+                }
+            });
+            listener.start();
+
+            while (scanner.hasNextLine()) {
+                String input = scanner.nextLine();
+                if (input.trim().equalsIgnoreCase("COMPOSE")) {
+                    if (!composeFrom(scanner, client))
+                        break;
+                } else {
+                    client.send(input);
+                }
+                client.flush();
+                if (input.trim().equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+            }
+            client.socket.shutdownOutput(); // the server closes once it has answered everything
+            listener.join();
+        } catch (IOException e) {
+            System.err.println("Client error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Asks for an email and queues it as one frame; the body ends at a line holding only ".".
+    private static boolean composeFrom(Scanner scanner, EmailClientSocket client) throws IOException {
+        String[] fields = new String[4];
+        String[] prompts = {"To:", "CC (optional):", "BCC (optional):", "Subject:"};
+        for (int i = 0; i < fields.length; i++) {
+            System.out.println(prompts[i]);
+            if (!scanner.hasNextLine())
+                return false;
+            fields[i] = scanner.nextLine();
+        }
+        System.out.println("Body (end with a line containing only .):");
+        StringBuilder body = new StringBuilder();
+        while (true) {
+            if (!scanner.hasNextLine())
+                return false;
+            String line = scanner.nextLine();
+            if (line.equals("."))
+                break;
+            if (body.length() > 0)
+                body.append('\n');
+            body.append(line);
+        }
+        client.compose(fields[0], fields[1], fields[2], fields[3], body.toString());
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+package main.java.com.emailapp;
+
+import java.util.GregorianCalendar;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap taken per in-memory email, in the current representation and
+ * in the earlier one (five Strings and a GregorianCalendar, kept here as
+ * LegacyEmail). Every message gets freshly built address strings, as it would
+ * when parsed from a client, so the effect of the AddressTable shows. TO lists
+ * name one to four users and every third message copies two more, so most
+ * address lines are combinations seen only once while the addresses in them repeat.
+ *
+ * Usage: EmailFootprint [messages] [distinct users]
+ */
+final class EmailFootprint {
+    private static final String[] WORDS = {
+        "meeting", "report", "quarterly", "update", "lunch", "review", "budget", "draft",
+        "schedule", "invoice", "project", "release", "notes", "deadline", "team", "question"
+    };
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int users = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+
+        long legacy = measure(count, i -> new LegacyEmail(address(i, users), to(i, users), cc(i, users),
+                "", subject(i), body(i), timestamp(i)));
+        long compact = measure(count, i -> new Email(address(i, users), to(i, users), cc(i, users),
+                "", subject(i), body(i), timestamp(i).getTimeInMillis()));
+
+        System.out.println("Messages:          " + count + " (" + users + " distinct users)");
+        System.out.println("Legacy layout:     " + (legacy / count) + " bytes/message");
+        System.out.println("Compact layout:    " + (compact / count) + " bytes/message");
+        System.out.println("Saved:             " + String.format("%.1f", 100.0 * (legacy - compact) / legacy) + " %");
+        System.out.println("Shared addresses:  " + AddressTable.size());
+    }
+
+    // Heap retained by count messages, measured around a forced collection.
+    private static long measure(int count, IntFunction<Object> factory) {
+        Object[] messages = new Object[count];
+        long before = usedHeap();
+        for (int i = 0; i < count; i++)
+            messages[i] = factory.apply(i);
+        long after = usedHeap();
+        if (messages[count - 1] == null) // keep the messages reachable until measured
+            throw new AssertionError();
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String address(int i, int users) {
+        return new StringBuilder("user").append(Math.floorMod(i * 31, users)).append("@example.com").toString();
+    }
+
+    private static String to(int i, int users) {
+        return addresses(i * 7 + 1, 1 + i % 4, users);
+    }
+
+    private static String cc(int i, int users) {
+        return (i % 3 == 0) ? addresses(i * 13 + 5, 2, users) : "";
+    }
+
+    private static String addresses(int first, int count, int users) {
+        StringBuilder line = new StringBuilder();
+        for (int a = 0; a < count; a++) {
+            if (a > 0)
+                line.append(", ");
+            int mixed = (first + a * 101) * 0x9e3779b9; // scatter the users, so combinations rarely repeat
+            line.append(address(mixed ^ (mixed >>> 16), users));
+        }
+        return line.toString();
+    }
+
+    private static String subject(int i) {
+        return WORDS[i % WORDS.length] + " " + WORDS[(i / 3) % WORDS.length] + " #" + i;
+    }
+
+    private static String body(int i) {
+        StringBuilder body = new StringBuilder();
+        for (int w = 0; w < 30; w++)
+            body.append(WORDS[(i + w * 5) % WORDS.length]).append(w % 10 == 9 ? ".\n" : " ");
+        return body.toString();
+    }
+
+    private static GregorianCalendar timestamp(int i) {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(1_700_000_000_000L + i * 60_000L);
+        return calendar;
+    }
+
+    // The fields Email held before the compact representation.
+    private static final class LegacyEmail {
+        final String from, to, cc, bcc, subject, body;
+        final GregorianCalendar timestamp;
+        boolean stored;
+        long locator;
+
+        LegacyEmail(String from, String to, String cc, String bcc, String subject, String body,
+                    GregorianCalendar timestamp) {
+            this.from = from;
+            this.to = to;
+            this.cc = cc;
+            this.bcc = bcc;
+            this.subject = subject;
+            this.body = body;
+            this.timestamp = timestamp;
+        }
+    }
+}
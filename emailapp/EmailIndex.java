@@ -0,0 +1,195 @@
+package main.java.com.emailapp;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable sorted sequence of emails, used for Folder's indexes. The emails
+ * are split into chunks of at most MAX_CHUNK, so an insertion or removal copies
+ * one chunk and the chunk table rather than the whole sequence; readers can
+ * keep using an old version for as long as they like.
+ *
+ * Equal elements stay in insertion order: insert() places an email after
+ * everything that compares equal to it.
+ */
+final class EmailIndex {
+    private static final int MAX_CHUNK = 256;
+
+    private final Comparator<Email> order;
+    private final Email[][] chunks;
+    private final int[] ends; // ends[c] is the number of emails in chunks 0..c
+
+    private EmailIndex(Comparator<Email> order, Email[][] chunks, int[] ends) {
+        this.order = order;
+        this.chunks = chunks;
+        this.ends = ends;
+    }
+
+    static EmailIndex empty(Comparator<Email> order) {
+        return new EmailIndex(order, new Email[0][], new int[0]);
+    }
+
+    // Builds an index from emails already in order.
+    static EmailIndex of(List<Email> sorted, Comparator<Email> order) {
+        int count = (sorted.size() + MAX_CHUNK - 1) / MAX_CHUNK;
+        Email[][] chunks = new Email[count][];
+        int[] ends = new int[count];
+        for (int c = 0; c < count; c++) {
+            int from = c * MAX_CHUNK;
+            int to = Math.min(sorted.size(), from + MAX_CHUNK);
+            chunks[c] = sorted.subList(from, to).toArray(new Email[0]);
+            ends[c] = to;
+        }
+        return new EmailIndex(order, chunks, ends);
+    }
+
+    int size() {
+        return ends.length == 0 ? 0 : ends[ends.length - 1];
+    }
+
+    Email get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+        int c = chunkOf(index);
+        return chunks[c][index - start(c)];
+    }
+
+    EmailIndex insert(Email email) {
+        if (chunks.length == 0)
+            return new EmailIndex(order, new Email[][] {{email}}, new int[] {1});
+        int c = firstChunkAfter(email);
+        if (c == chunks.length)
+            c--; // goes at the end of the last chunk
+        Email[] chunk = chunks[c];
+        int offset = upperBound(chunk, email);
+
+        Email[] grown = new Email[chunk.length + 1];
+        System.arraycopy(chunk, 0, grown, 0, offset);
+        grown[offset] = email;
+        System.arraycopy(chunk, offset, grown, offset + 1, chunk.length - offset);
+        if (grown.length <= MAX_CHUNK)
+            return replace(c, grown);
+        int half = grown.length / 2;
+        return replace(c, Arrays.copyOfRange(grown, 0, half), Arrays.copyOfRange(grown, half, grown.length));
+    }
+
+    // Removes this very email (not merely an equal one).
+    EmailIndex remove(Email email) {
+        int index = indexOf(email);
+        if (index < 0)
+            throw new IllegalStateException("Email is not in the index");
+        int c = chunkOf(index);
+        return removeAt(c, index - start(c));
+    }
+
+    // Position of this very email, or -1.
+    int indexOf(Email email) {
+        int c = firstChunkAfter(email);
+        int end = (c == chunks.length) ? size() : start(c) + upperBound(chunks[c], email);
+        for (int i = end - 1; i >= 0; i--) {
+            Email candidate = get(i);
+            if (candidate == email)
+                return i;
+            if (order.compare(candidate, email) < 0)
+                break; // past the emails equal to it
+        }
+        return -1;
+    }
+
+    // Read-only views, first to last and last to first.
+    List<Email> ascending() {
+        return new View(false);
+    }
+
+    List<Email> descending() {
+        return new View(true);
+    }
+
+    private EmailIndex removeAt(int c, int offset) {
+        Email[] chunk = chunks[c];
+        if (chunk.length == 1)
+            return replace(c);
+        Email[] shrunk = new Email[chunk.length - 1];
+        System.arraycopy(chunk, 0, shrunk, 0, offset);
+        System.arraycopy(chunk, offset + 1, shrunk, offset, chunk.length - offset - 1);
+        return replace(c, shrunk);
+    }
+
+    // New index with chunk c replaced by zero or more chunks.
+    private EmailIndex replace(int c, Email[]... replacement) {
+        int count = chunks.length - 1 + replacement.length;
+        Email[][] newChunks = new Email[count][];
+        System.arraycopy(chunks, 0, newChunks, 0, c);
+        System.arraycopy(replacement, 0, newChunks, c, replacement.length);
+        System.arraycopy(chunks, c + 1, newChunks, c + replacement.length, chunks.length - c - 1);
+        int[] newEnds = new int[count];
+        System.arraycopy(ends, 0, newEnds, 0, c);
+        for (int i = c; i < count; i++)
+            newEnds[i] = ((i == 0) ? 0 : newEnds[i - 1]) + newChunks[i].length;
+        return new EmailIndex(order, newChunks, newEnds);
+    }
+
+    private int start(int c) {
+        return (c == 0) ? 0 : ends[c - 1];
+    }
+
+    private int chunkOf(int index) {
+        int low = 0, high = ends.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] > index)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    // First chunk whose last email sorts after the key, or chunks.length.
+    private int firstChunkAfter(Email key) {
+        int low = 0, high = chunks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Email[] chunk = chunks[mid];
+            if (order.compare(chunk[chunk.length - 1], key) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // Position after every element of the chunk that compares equal to the key.
+    private int upperBound(Email[] chunk, Email key) {
+        int low = 0, high = chunk.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(chunk[mid], key) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private final class View extends AbstractList<Email> implements RandomAccess {
+        private final boolean reversed;
+
+        View(boolean reversed) { this.reversed = reversed; }
+
+        @Override public Email get(int i) { return EmailIndex.this.get(reversed ? size() - 1 - i : i); }
+        @Override public int size() { return EmailIndex.this.size(); }
+
+        // Found by binary search, since the elements are in index order.
+        @Override
+        public int indexOf(Object o) {
+            if (!(o instanceof Email))
+                return -1;
+            int index = EmailIndex.this.indexOf((Email) o);
+            return (index < 0 || !reversed) ? index : size() - 1 - index;
+        }
+    }
+}
@@ -1,27 +1,102 @@
 package main.java.com.emailapp;
 
-import main.java.com.emailapp.exceptions.MailboxException;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A socket server that supports multiple client connections.
  * Clients log in with a username and can use commands like:
  *   LOGIN <username>
  *   COMPOSE
- *   INBOX
+ *   INBOX [offset] [limit]
  *   VIEW <index>
+ *   SEARCH <words> [FROM:<name>] [SUBJECT:<word>] [SINCE:yyyy-mm-dd] [BEFORE:yyyy-mm-dd]
+ *   FRAMED
  *   QUIT
+ *
+ * FRAMED switches the connection to length-prefixed frames (see FramedProtocol),
+ * so a client can pipeline commands and send an email in a single frame.
+ *
+ * Mailboxes are persisted in a MailStore directory (--data=DIR, default
+ * "mailstore") and recovered on startup. Composed emails are delivered to the
+ * inboxes of their TO, CC and BCC recipients by a DeliveryQueue; only users
+ * who have logged in before have a mailbox, and any other recipient is
+ * reported back to the sender.
+ *
+ * By default each client gets its own thread. Run with --nio to multiplex every
+ * connection on one selector thread and run their commands on a small worker
+ * pool instead, which scales to tens of thousands of mostly idle sessions (see
+ * NioEmailServer). Either way a change is acknowledged only once it is on disk.
  */
 public class EmailServer {
     private static final int PORT = 5000;
+    private static final String DEFAULT_DATA_DIR = "mailstore";
     // Map username to Mailbox (using a thread-safe map)
     private Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final MailStore store;
+    private final DeliveryQueue deliveries;
+
+    public EmailServer(MailStore store) throws IOException {
+        this.store = store;
+        mailboxes.putAll(store.recoverAll());
+        deliveries = new DeliveryQueue(this::existingMailbox, store);
+    }
 
     public static void main(String[] args) {
-        new EmailServer().startServer();
+        boolean nio = false;
+        String dataDir = DEFAULT_DATA_DIR;
+        for (String arg : args) {
+            if (arg.equals("--nio"))
+                nio = true;
+            else if (arg.startsWith("--data="))
+                dataDir = arg.substring("--data=".length());
+        }
+
+        // Synchronous in both modes: the NIO server waits for commits on its worker
+        // threads, never on the selector, so it can fsync before replying too.
+        try (MailStore store = new MailStore(Paths.get(dataDir), true)) {
+            EmailServer server = new EmailServer(store);
+            System.out.println("Recovered " + server.mailboxes.size() + " mailboxes from " + dataDir);
+            try {
+                if (nio)
+                    server.startNioServer();
+                else
+                    server.startServer();
+            } finally {
+                server.deliveries.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open mail store: " + e.getMessage());
+        }
+    }
+
+    // Mailbox of a user, recovered from or created in the store on first use.
+    private Mailbox mailboxFor(String username) {
+        return mailboxes.computeIfAbsent(username, k -> {
+            try {
+                return store.open(k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Mailbox of a user the store already has, or null; never creates one, so a
+    // mistyped recipient does not leave a mailbox behind.
+    private Mailbox existingMailbox(String username) {
+        return mailboxes.computeIfAbsent(username, k -> {
+            try {
+                return store.find(k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     public void startServer() {
@@ -30,130 +105,103 @@ public class EmailServer {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New client connected from " + clientSocket.getInetAddress());
-                new Thread(new ClientHandler(clientSocket, mailboxes)).start();
+                new Thread(new ClientHandler(clientSocket, this::mailboxFor, deliveries::submit)).start();
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
         }
     }
 
-    private static class ClientHandler implements Runnable {
+    // Serves every connection from one selector thread.
+    public void startNioServer() {
+        System.out.println("Email server starting on port " + PORT + " (non-blocking)");
+        try {
+            new NioEmailServer(PORT, this::mailboxFor, deliveries::submit).run();
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+
+    private static class ClientHandler implements Runnable, ClientSession.Output {
         private Socket socket;
-        private Map<String, Mailbox> mailboxes;
-        private PrintWriter out;
-        private BufferedReader in;
-        private String username;
-        private Mailbox mailbox;
+        private Function<String, Mailbox> mailboxes;
+        private Consumer<Email> deliveries;
+        private final Charset charset = Charset.defaultCharset();
+        private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+        private OutputStream out;
+        private ClientSession session;
+        private final StringBuilder frame = new StringBuilder(); // reply lines of the current frame
 
-        public ClientHandler(Socket socket, Map<String, Mailbox> mailboxes) {
+        public ClientHandler(Socket socket, Function<String, Mailbox> mailboxes, Consumer<Email> deliveries) {
             this.socket = socket;
             this.mailboxes = mailboxes;
+            this.deliveries = deliveries;
         }
 
         @Override
         public void run() {
             try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in  = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                out.println("Welcome to the Email Server. Please log in with: LOGIN <username>");
-                String line;
-                while ((line = in.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty())
-                        continue;
-
-                    if (username == null) {
-                        if (line.toUpperCase().startsWith("LOGIN")) {
-                            String[] tokens = line.split("\\s+");
-                            if (tokens.length >= 2) {
-                                username = tokens[1];
-                                // Get or create mailbox for this user
-                                mailbox = mailboxes.computeIfAbsent(username, k -> new Mailbox());
-                                out.println("Logged in as " + username);
-                                out.println("Commands: COMPOSE, INBOX, VIEW <index>, QUIT");
-                            } else {
-                                out.println("Invalid login command. Usage: LOGIN <username>");
-                            }
-                        } else {
-                            out.println("Please log in first with: LOGIN <username>");
-                        }
+                // Input is read byte by byte rather than through a Reader, which would read
+                // ahead into the frames that follow a FRAMED line.
+                BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                session = new ClientSession(mailboxes, deliveries, this);
+                session.start();
+                out.flush();
+                while (!session.isClosed()) {
+                    if (session.isFramed()) {
+                        String payload = FramedProtocol.read(in, FramedProtocol.MAX_FRAME_BYTES);
+                        if (payload == null)
+                            break;
+                        session.onFrame(payload);
                     } else {
-                        // Process commands for a logged-in user
-                        if (line.equalsIgnoreCase("QUIT")) {
-                            out.println("Goodbye!");
+                        String line = FramedProtocol.readLine(in, charset);
+                        if (line == null)
                             break;
-                        } else if (line.equalsIgnoreCase("INBOX")) {
-                            listInbox();
-                        } else if (line.toUpperCase().startsWith("VIEW")) {
-                            viewEmail(line);
-                        } else if (line.equalsIgnoreCase("COMPOSE")) {
-                            composeEmail();
-                        } else {
-                            out.println("Unknown command. Available commands: COMPOSE, INBOX, VIEW <index>, QUIT");
-                        }
+                        session.onLine(line);
                     }
+                    // Replies to requests that are already waiting leave together in one write.
+                    if (in.available() == 0)
+                        out.flush();
                 }
-            } catch (IOException e) {
+                out.flush();
+            } catch (IOException | UncheckedIOException e) {
                 System.err.println("Client connection error: " + e.getMessage());
             } finally {
                 try { socket.close(); } catch(IOException e) { /* Ignore */ }
             }
         }
 
-        private void listInbox() {
-            Folder inbox = mailbox.getFolder("Inbox");
-            if (inbox == null || inbox.getEmails().isEmpty()) {
-                out.println("Inbox is empty.");
+        @Override
+        public void println(String line) {
+            if (session.isFramed()) {
+                if (frame.length() > 0)
+                    frame.append('\n');
+                frame.append(line);
                 return;
             }
-            for (int i = 0; i < inbox.getEmails().size(); i++) {
-                out.println((i + 1) + ": " + inbox.getEmails().get(i).toString());
+            try {
+                out.write(line.getBytes(charset));
+                out.write(lineSeparator);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
-        private void viewEmail(String command) {
-            String[] tokens = command.split("\\s+");
-            if (tokens.length < 2) {
-                out.println("Usage: VIEW <index>");
+        // In framed mode the buffered lines become one reply frame; the socket itself
+        // is flushed by run().
+        @Override
+        public void flush() {
+            if (!session.isFramed())
                 return;
-            }
             try {
-                int index = Integer.parseInt(tokens[1]) - 1;
-                Folder inbox = mailbox.getFolder("Inbox");
-                if (inbox == null || index < 0 || index >= inbox.getEmails().size()) {
-                    out.println("Invalid email index.");
-                } else {
-                    Email email = inbox.getEmails().get(index);
-                    out.println("To: " + email.getTo());
-                    out.println("CC: " + email.getCc());
-                    out.println("BCC: " + email.getBcc());
-                    out.println("Subject: " + email.getSubject());
-                    out.println("Body: " + email.getBody());
-                    out.println("Timestamp: " + email.getTimestamp().getTime());
-                }
-            } catch (NumberFormatException e) {
-                out.println("Invalid index format.");
+                FramedProtocol.write(out, frame.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        }
-
-        private void composeEmail() throws IOException {
-            out.println("Composing a new email.");
-            out.println("Enter recipient (TO):");
-            String to = in.readLine();
-            out.println("Enter CC (optional):");
-            String cc = in.readLine();
-            out.println("Enter BCC (optional):");
-            String bcc = in.readLine();
-            out.println("Enter subject:");
-            String subject = in.readLine();
-            out.println("Enter body:");
-            String body = in.readLine();
-
-            Email email = new Email(to, cc, bcc, subject, body);
-            Folder inbox = mailbox.getFolder("Inbox");
-            inbox.addEmail(email);
-            out.println("Email composed and added to Inbox.");
+            frame.setLength(0);
+            if (frame.capacity() > 4096)
+                frame.trimToSize();
         }
     }
 }
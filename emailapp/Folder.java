@@ -1,54 +1,294 @@
 package main.java.com.emailapp;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * Represents a folder that contains emails and supports sorting.
+ *
+ * The emails are kept in two sorted indexes, by date and by subject, and each
+ * insertion finds its place by binary search. The sorting method only picks
+ * which index getEmails() shows and in which direction, so changing it never
+ * re-sorts. Ties keep insertion order, which makes the positions used by
+ * removeEmail() the same when a mailbox is rebuilt from its log.
+ *
+ * Several sessions and the delivery queue may use a folder at once. Readers
+ * never lock: the indexes are immutable EmailIndex versions, and getEmails()
+ * returns whichever version is current. Writers serialize on the folder's own
+ * monitor and build the next version there, taking the journal's monitor only
+ * to record the change and publish it, so writers to different folders of a
+ * mailbox barely contend.
+ *
+ * A SearchIndex over the folder is updated together with each published
+ * version, so SEARCH needs no scan of the emails. The MailboxCodec does not save
+ * it, which keeps snapshots cheap; a loaded folder builds its index on the first
+ * SEARCH instead.
  */
 public class Folder implements Serializable {
     private static final long serialVersionUID = 1L;
-    private ArrayList<Email> emails;
+    // The serialized form is the emails in date order, as when they were a plain list.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("emails", ArrayList.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("sortingMethod", String.class),
+        new ObjectStreamField("search", SearchIndex.class)
+    };
+    private static final Comparator<Email> BY_DATE = Comparator.comparingLong(Email::getTimestampMillis);
+    private static final Comparator<Email> BY_SUBJECT =
+            Comparator.comparing(Email::getSubject, Comparator.nullsFirst(Comparator.naturalOrder())).thenComparing(BY_DATE);
+
     private String name;
-    private String sortingMethod = "dateDesc";
+    private transient volatile Contents contents;
+    private transient SearchIndex search; // guarded by its own monitor
+    private transient volatile boolean unindexed; // loaded without an index; built on the first search
+    private transient volatile MailboxJournal journal; // set while the mailbox is persisted by a MailStore
 
     public Folder(String name) {
-        this.emails = new ArrayList<>();
         this.name = name;
+        contents = new Contents(EmailIndex.empty(BY_DATE), EmailIndex.empty(BY_SUBJECT), "dateDesc");
+        search = new SearchIndex();
     }
 
-    public ArrayList<Email> getEmails() { return emails; }
+    // The emails in the current sorting order. The list is a read-only snapshot;
+    // later changes to the folder do not affect it.
+    public List<Email> getEmails() { return contents.view; }
     public String getName() { return name; }
+    String getSortingMethod() { return contents.sortingMethod; }
+
+    // Oldest first, ties in insertion order: the order a folder is saved in.
+    List<Email> getEmailsByDate() { return contents.byDate.ascending(); }
+
+    void setJournal(MailboxJournal journal) { this.journal = journal; }
+
+    void setMessageStore(MessageStore store) {
+        for (Email email : contents.view) {
+            if (email.isStored())
+                email.setMessageStore(store);
+        }
+    }
+
+    // Emails matching a SEARCH, in no particular order. The first search of a
+    // loaded folder builds its index, holding up writers to the folder meanwhile.
+    List<Email> search(SearchIndex.Query query) {
+        if (unindexed) {
+            synchronized (this) {
+                if (unindexed)
+                    buildSearchIndex();
+            }
+        }
+        synchronized (search) {
+            return search.find(query);
+        }
+    }
 
     public void addEmail(Email email) {
-        emails.add(email);
-        sortEmails();
+        String[] terms = SearchIndex.terms(email);
+        long sequence;
+        synchronized (this) {
+            sequence = commit(contents.insert(email), j -> j.emailAdded(name, email), s -> s.add(email, terms));
+        }
+        awaitDurable(sequence);
     }
 
-    public Email removeEmail(int index) {
-        return emails.remove(index);
+    // Adds a batch of emails without waiting for them to reach the disk. Returns
+    // the sequence to pass to awaitDurable(). terms supplies each email's search
+    // terms, so a caller delivering one email to many folders computes them once.
+    long deliver(List<Email> batch, Function<Email, String[]> terms) {
+        synchronized (this) {
+            long sequence = 0;
+            for (Email email : batch) {
+                String[] emailTerms = terms.apply(email);
+                sequence = commit(contents.insert(email), j -> j.emailAdded(name, email), s -> s.add(email, emailTerms));
+            }
+            return sequence;
+        }
+    }
+
+    void awaitDurable(long sequence) {
+        MailboxJournal j = journal;
+        if (j != null && sequence > 0)
+            j.awaitDurable(sequence);
     }
 
-    public void sortEmails() {
-        switch (sortingMethod) {
-            case "dateAsc":
-                emails.sort(Comparator.comparing(Email::getTimestamp));
-                break;
-            case "dateDesc":
-                emails.sort(Comparator.comparing(Email::getTimestamp).reversed());
-                break;
-            case "subjectAsc":
-                emails.sort(Comparator.comparing(Email::getSubject));
-                break;
-            case "subjectDesc":
-                emails.sort(Comparator.comparing(Email::getSubject).reversed());
-                break;
+    public Email removeEmail(int index) {
+        Email removed;
+        long sequence;
+        synchronized (this) {
+            Contents current = contents;
+            removed = current.view.get(index);
+            sequence = commit(current.remove(removed), j -> j.emailRemoved(name, index), s -> s.remove(removed));
         }
+        awaitDurable(sequence);
+        return removed;
     }
 
     public void setSortingMethod(String method) {
-        this.sortingMethod = method;
-        sortEmails();
+        long sequence;
+        synchronized (this) {
+            sequence = commit(contents.sortedBy(method), j -> j.sortingMethodChanged(name, method), s -> { });
+        }
+        awaitDurable(sequence);
+    }
+
+    // Publishes the next contents and applies the matching search index change,
+    // recording the change under the journal's monitor in the same step so a
+    // snapshot of the mailbox never has one without the others. Called with this
+    // folder's monitor held; returns the sequence to wait for, or 0.
+    private long commit(Contents next, ToLongFunction<MailboxJournal> record, Consumer<SearchIndex> index) {
+        MailboxJournal j = journal;
+        if (j == null) {
+            publish(next, index);
+            return 0;
+        }
+        synchronized (j) {
+            // A folder removed meanwhile has been detached and is no longer logged.
+            long sequence = (journal == j) ? record.applyAsLong(j) : 0;
+            publish(next, index); // after the record, which may move a new email's contents to the message store
+            return sequence;
+        }
+    }
+
+    // Until the index is built, changes need not be applied to it: it is built
+    // from the contents current then.
+    private void publish(Contents next, Consumer<SearchIndex> index) {
+        contents = next;
+        if (unindexed)
+            return;
+        synchronized (search) {
+            index.accept(search);
+        }
+    }
+
+    private void buildSearchIndex() {
+        SearchIndex built = new SearchIndex();
+        for (Email email : contents.byDate.ascending())
+            built.add(email, SearchIndex.terms(email));
+        synchronized (search) {
+            search = built;
+            unindexed = false;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Contents current = contents;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("emails", new ArrayList<>(current.byDate.ascending()));
+        fields.put("name", name);
+        fields.put("sortingMethod", current.sortingMethod);
+        synchronized (search) {
+            fields.put("search", unindexed ? null : search);
+            out.writeFields();
+        }
+    }
+
+    // The folder as it is now, for a MailboxCodec to write later. The contents are
+    // immutable, so no lock is needed.
+    Capture capture() {
+        return new Capture(name, contents);
+    }
+
+    static final class Capture {
+        private final String name;
+        private final Contents contents;
+
+        private Capture(String name, Contents contents) {
+            this.name = name;
+            this.contents = contents;
+        }
+
+        String getName() { return name; }
+        String getSortingMethod() { return contents.sortingMethod; }
+        List<Email> getEmailsByDate() { return contents.byDate.ascending(); }
+
+        // Writes the folder for a MailboxCodec: the emails in date order, then a flag
+        // for the search index, which is no longer saved.
+        void encode(MailboxCodec.Encoder out) throws IOException {
+            List<Email> emails = contents.byDate.ascending();
+            out.putString(name);
+            out.putString(contents.sortingMethod);
+            out.putVarint(emails.size());
+            long previous = 0;
+            for (Email email : emails) {
+                email.encode(out, previous);
+                previous = email.getTimestampMillis();
+            }
+            out.putByte(0); // no search index; built on the folder's first search
+        }
+    }
+
+    static Folder decode(MailboxCodec.Decoder in) throws IOException {
+        Folder folder = new Folder(in.getString());
+        String sortingMethod = in.getString();
+        int count = in.getVarint();
+        List<Email> emails = new ArrayList<>(Math.min(count, 1 << 16));
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            Email email = Email.decode(in, previous);
+            emails.add(email);
+            previous = email.getTimestampMillis();
+        }
+        SearchIndex search = (in.getByte() != 0) ? SearchIndex.decode(in, emails) : null;
+        folder.restore(emails, (sortingMethod == null) ? "dateDesc" : sortingMethod, search);
+        return folder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        restore((ArrayList<Email>) fields.get("emails", null), (String) fields.get("sortingMethod", "dateDesc"),
+                (SearchIndex) fields.get("search", null));
+    }
+
+    // Rebuilds the indexes from saved emails; a list already in date order keeps its ties.
+    void restore(List<Email> emails, String sortingMethod, SearchIndex search) {
+        emails.sort(BY_DATE); // stable
+        List<Email> bySubject = new ArrayList<>(emails);
+        bySubject.sort(BY_SUBJECT);
+        contents = new Contents(EmailIndex.of(emails, BY_DATE), EmailIndex.of(bySubject, BY_SUBJECT), sortingMethod);
+        this.search = (search == null) ? new SearchIndex() : search;
+        unindexed = (search == null); // stored emails are readable only once the store is attached
+    }
+
+    // One immutable version of the folder's emails and the order they are shown in.
+    private static final class Contents {
+        final EmailIndex byDate;
+        final EmailIndex bySubject;
+        final String sortingMethod;
+        final List<Email> view;
+
+        Contents(EmailIndex byDate, EmailIndex bySubject, String sortingMethod) {
+            this.byDate = byDate;
+            this.bySubject = bySubject;
+            this.sortingMethod = sortingMethod;
+            // Unknown methods show the default order, newest first.
+            switch (sortingMethod) {
+                case "dateAsc":     view = byDate.ascending();     break;
+                case "subjectAsc":  view = bySubject.ascending();  break;
+                case "subjectDesc": view = bySubject.descending(); break;
+                default:            view = byDate.descending();
+            }
+        }
+
+        Contents insert(Email email) {
+            return new Contents(byDate.insert(email), bySubject.insert(email), sortingMethod);
+        }
+
+        Contents remove(Email email) {
+            return new Contents(byDate.remove(email), bySubject.remove(email), sortingMethod);
+        }
+
+        Contents sortedBy(String method) {
+            return new Contents(byDate, bySubject, method);
+        }
     }
 }
@@ -0,0 +1,95 @@
+package main.java.com.emailapp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-framed protocol mode. After logging in, a client may send FRAMED; the
+ * server answers with ACK as an ordinary line, and from then on both sides
+ * exchange frames: a 4-byte big-endian length followed by that many bytes of
+ * UTF-8.
+ *
+ * Each request frame holds one command and gets exactly one reply frame, the
+ * reply's lines joined by \n, in request order, so a client may send many
+ * requests before reading any replies. A COMPOSE frame carries a whole email:
+ * a COMPOSE line, then the TO, CC, BCC and subject lines, then the body, which
+ * may span any number of lines.
+ */
+final class FramedProtocol {
+    static final String COMMAND = "FRAMED";
+    static final String ACK = "Framed mode on.";
+    static final int MAX_FRAME_BYTES = 1 << 20; // of a request; replies such as a full INBOX may be longer
+
+    private FramedProtocol() {
+    }
+
+    // Payload of a single-frame COMPOSE. The header fields must be single lines.
+    static String compose(String to, String cc, String bcc, String subject, String body) {
+        StringBuilder payload = new StringBuilder("COMPOSE");
+        for (String field : new String[] {to, cc, bcc, subject}) {
+            if (field != null && (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0))
+                throw new IllegalArgumentException("Recipients and subject must not contain line breaks");
+            payload.append('\n').append(field == null ? "" : field);
+        }
+        return payload.append('\n').append(body == null ? "" : body).toString();
+    }
+
+    static byte[] encode(String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[4 + bytes.length];
+        frame[0] = (byte) (bytes.length >>> 24);
+        frame[1] = (byte) (bytes.length >>> 16);
+        frame[2] = (byte) (bytes.length >>> 8);
+        frame[3] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, frame, 4, bytes.length);
+        return frame;
+    }
+
+    static void write(OutputStream out, String payload) throws IOException {
+        out.write(encode(payload));
+    }
+
+    // Reads one frame of at most maxBytes, or returns null at the end of the stream between frames.
+    static String read(InputStream in, int maxBytes) throws IOException {
+        byte[] header = new byte[4];
+        int n = in.readNBytes(header, 0, 4);
+        if (n == 0)
+            return null;
+        if (n < 4)
+            throw new EOFException("Stream ended inside a frame");
+        int length = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        if (length < 0 || length > maxBytes)
+            throw new IOException("Frame length " + length + " out of range");
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length)
+            throw new EOFException("Stream ended inside a frame");
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    // Reads a line the way BufferedReader.readLine() does (\n, \r or \r\n), but
+    // without reading ahead past it, so frames can follow on the same stream.
+    static String readLine(BufferedInputStream in, Charset charset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n')
+                return line.toString(charset);
+            if (b == '\r') {
+                in.mark(1);
+                if (in.read() != '\n')
+                    in.reset();
+                return line.toString(charset);
+            }
+            if (line.size() >= MAX_FRAME_BYTES)
+                throw new IOException("Line too long");
+            line.write(b);
+        }
+        return (line.size() > 0) ? line.toString(charset) : null;
+    }
+}
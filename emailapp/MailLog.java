@@ -0,0 +1,419 @@
+package main.java.com.emailapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import main.java.com.emailapp.exceptions.MailboxException;
+
+/**
+ * Write-ahead log of one user's mailbox, managed by MailStore. Changes are
+ * encoded into an in-memory buffer under this object's monitor; the store's
+ * flusher thread later writes everything buffered in one write and one fsync,
+ * so concurrent changes share the cost of a sync (group commit).
+ *
+ * On disk a user has a snapshot, <name>.snap, and log generations
+ * <name>.<generation>.log. The snapshot names the first generation that is not
+ * part of it, so recovery loads the snapshot and replays that generation and
+ * any later ones. Compaction captures the mailbox under the monitor, encodes it
+ * after releasing the monitor, starts a new generation, writes the snapshot,
+ * and only then deletes the old log, so a crash at any point leaves a
+ * recoverable set of files.
+ *
+ * The snapshot holds the mailbox in the MailboxCodec format; snapshots from
+ * before it, in Java serialization, are still read.
+ *
+ * Log records are [payload length][CRC32 of payload][payload]; a torn or
+ * corrupt record at the end of a log is cut off during recovery. Added emails
+ * are normally written to the store's MessageStore first, and the log and
+ * snapshot then hold only their subject, timestamp and locator; the message
+ * store is synced before any log that refers to it.
+ */
+class MailLog implements MailboxJournal {
+    static final int SNAPSHOT_MAGIC = 0x4d534e50; // "MSNP"
+    static final int SNAPSHOT_VERSION = 2; // body in the MailboxCodec format
+    private static final int SERIALIZED_SNAPSHOT_VERSION = 1; // body from Java serialization, still readable
+    private static final int RECORD_HEADER = 8;
+
+    private static final byte ADD_EMAIL = 1;
+    private static final byte REMOVE_EMAIL = 2;
+    private static final byte ADD_FOLDER = 3;
+    private static final byte REMOVE_FOLDER = 4;
+    private static final byte SET_SORTING = 5;
+    private static final byte ADD_STORED_EMAIL = 6;
+
+    private final MailStore store;
+    private final String baseName;
+    private final Mailbox mailbox;
+    private final Object io = new Object(); // held by whoever writes files
+
+    // Guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private ByteBuffer spare = ByteBuffer.allocate(4096);
+    private long appendedSequence;
+    private long durableSequence;
+    private int recordsSinceSnapshot;
+    private long bytesSinceSnapshot;
+    private boolean queued;
+    private IOException failure;
+
+    // Guarded by io
+    private FileChannel channel;
+    private long generation;
+
+    private MailLog(MailStore store, String baseName, Mailbox mailbox, long generation, int replayed) {
+        this.store = store;
+        this.baseName = baseName;
+        this.mailbox = mailbox;
+        this.generation = generation;
+        this.recordsSinceSnapshot = replayed;
+    }
+
+    Mailbox getMailbox() { return mailbox; }
+
+    // Loads a user's mailbox from its snapshot and logs, creating an empty one when
+    // there are no files, and attaches a log for further changes.
+    static MailLog recover(MailStore store, String baseName) throws IOException {
+        Path snapshot = store.snapshotPath(baseName);
+        Mailbox mailbox = new Mailbox();
+        long firstGeneration = 0;
+        if (Files.exists(snapshot)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            if (in.remaining() < 24 || in.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException("Unreadable snapshot " + snapshot);
+            int version = in.getInt();
+            if (version != SNAPSHOT_VERSION && version != SERIALIZED_SNAPSHOT_VERSION)
+                throw new IOException("Unreadable snapshot " + snapshot);
+            firstGeneration = in.getLong();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length != in.remaining() || checksum(in.array(), in.position(), length) != checksum)
+                throw new IOException("Corrupt snapshot " + snapshot);
+            mailbox = (version == SNAPSHOT_VERSION) ? readSnapshot(in.array(), in.position(), length)
+                    : readSerializedSnapshot(in.array(), in.position(), length);
+            mailbox.setMessageStore(store.getMessageStore());
+        }
+
+        int replayed = 0;
+        long generation = firstGeneration;
+        for (long g : store.logGenerations(baseName)) {
+            Path log = store.logPath(baseName, g);
+            if (g < firstGeneration) {
+                Files.deleteIfExists(log); // already contained in the snapshot
+                continue;
+            }
+            replayed += replay(log, mailbox, store.getMessageStore());
+            generation = g;
+        }
+
+        MailLog mailLog = new MailLog(store, baseName, mailbox, generation, replayed);
+        mailLog.channel = FileChannel.open(store.logPath(baseName, generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        mailLog.channel.position(mailLog.channel.size());
+        mailbox.setJournal(mailLog);
+        return mailLog;
+    }
+
+    // Applies every intact record of a log, truncating it after the last one.
+    private static int replay(Path log, Mailbox mailbox, MessageStore messages) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(log));
+        int records = 0;
+        int good = 0;
+        while (in.remaining() >= RECORD_HEADER) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining() || checksum(in.array(), in.position(), length) != checksum)
+                break;
+            ByteBuffer record = in.slice(in.position(), length);
+            in.position(in.position() + length);
+            try {
+                apply(record, mailbox, messages);
+            } catch (MailboxException | RuntimeException e) {
+                throw new IOException("Cannot replay record " + records + " of " + log + ": " + e.getMessage());
+            }
+            good = in.position();
+            records++;
+        }
+        if (good < in.capacity()) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer record, Mailbox mailbox, MessageStore messages) throws MailboxException {
+        byte type = record.get();
+        String folderName = getString(record);
+        switch (type) {
+            case ADD_EMAIL: {
+                String to = getString(record), cc = getString(record), bcc = getString(record);
+                String subject = getString(record), body = getString(record);
+                long timestamp = record.getLong();
+                String from = record.hasRemaining() ? getString(record) : null; // absent in older logs
+                folder(mailbox, folderName).addEmail(new Email(from, to, cc, bcc, subject, body, timestamp));
+                break;
+            }
+            case ADD_STORED_EMAIL: {
+                String subject = getString(record);
+                long timestamp = record.getLong();
+                folder(mailbox, folderName).addEmail(new Email(messages, record.getLong(), subject, timestamp));
+                break;
+            }
+            case REMOVE_EMAIL:
+                folder(mailbox, folderName).removeEmail(record.getInt());
+                break;
+            case ADD_FOLDER:
+                mailbox.addFolder(folderName);
+                break;
+            case REMOVE_FOLDER:
+                mailbox.removeFolder(folderName);
+                break;
+            case SET_SORTING:
+                folder(mailbox, folderName).setSortingMethod(getString(record));
+                break;
+            default:
+                throw new IllegalStateException("unknown record type " + type);
+        }
+    }
+
+    private static Folder folder(Mailbox mailbox, String name) {
+        Folder folder = mailbox.getFolder(name);
+        if (folder == null)
+            throw new IllegalStateException("no folder " + name);
+        return folder;
+    }
+
+    // --- MailboxJournal, called with this object's monitor held ---
+
+    @Override
+    public long emailAdded(String folder, Email email) {
+        if (!email.isStored())
+            store.storeMessage(email);
+        if (email.isStored()) {
+            int start = begin(ADD_STORED_EMAIL, folder);
+            putString(email.getSubject());
+            reserve(16).putLong(email.getTimestampMillis()).putLong(email.getLocator());
+            return end(start);
+        }
+        int start = begin(ADD_EMAIL, folder);
+        putString(email.getTo());
+        putString(email.getCc());
+        putString(email.getBcc());
+        putString(email.getSubject());
+        putString(email.getBody());
+        reserve(8).putLong(email.getTimestampMillis());
+        putString(email.getFrom());
+        return end(start);
+    }
+
+    @Override
+    public long emailRemoved(String folder, int index) {
+        int start = begin(REMOVE_EMAIL, folder);
+        reserve(4).putInt(index);
+        return end(start);
+    }
+
+    @Override
+    public long folderAdded(String folder) {
+        return end(begin(ADD_FOLDER, folder));
+    }
+
+    @Override
+    public long folderRemoved(String folder) {
+        return end(begin(REMOVE_FOLDER, folder));
+    }
+
+    @Override
+    public long sortingMethodChanged(String folder, String method) {
+        int start = begin(SET_SORTING, folder);
+        putString(method);
+        return end(start);
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (!store.isSynchronous())
+            return;
+        boolean interrupted = false;
+        synchronized (this) {
+            while (durableSequence < sequence && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (durableSequence < sequence)
+                throw new UncheckedIOException("Mailbox log could not be written", failure);
+        }
+    }
+
+    private int begin(byte type, String folder) {
+        if (failure != null)
+            throw new UncheckedIOException("Mailbox log could not be written", failure);
+        int start = reserve(RECORD_HEADER + 1).position();
+        pending.position(start + RECORD_HEADER);
+        pending.put(type);
+        putString(folder);
+        return start;
+    }
+
+    private long end(int start) {
+        int length = pending.position() - start - RECORD_HEADER;
+        pending.putInt(start, length);
+        pending.putInt(start + 4, checksum(pending.array(), start + RECORD_HEADER, length));
+        recordsSinceSnapshot++;
+        bytesSinceSnapshot += length + RECORD_HEADER;
+        long sequence = ++appendedSequence;
+        if (!queued) {
+            queued = true;
+            store.schedule(this);
+        }
+        return sequence;
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            reserve(4).putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        reserve(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        return pending;
+    }
+
+    // --- Flusher side ---
+
+    // Writes and syncs everything buffered so far, compacting into a new snapshot
+    // when the log has grown past the store's limits. Called by the flusher thread.
+    void sync() {
+        synchronized (io) {
+            ByteBuffer batch;
+            long sequence;
+            List<Folder.Capture> captured = null;
+            long snapshotGeneration = 0;
+            synchronized (this) {
+                queued = false;
+                batch = pending.flip();
+                pending = spare.clear();
+                spare = batch;
+                sequence = appendedSequence;
+                if (store.snapshotDue(recordsSinceSnapshot, bytesSinceSnapshot)) {
+                    // Only capture here; encoding would hold up every folder commit.
+                    captured = mailbox.capture();
+                    snapshotGeneration = generation + 1;
+                    recordsSinceSnapshot = 0;
+                    bytesSinceSnapshot = 0;
+                }
+            }
+            byte[] snapshot = null;
+            if (captured != null) {
+                try {
+                    snapshot = MailboxCodec.encode(captured);
+                } catch (IOException e) {
+                    System.err.println("Snapshot of " + baseName + " failed: " + e.getMessage());
+                }
+            }
+            try {
+                store.getMessageStore().force(); // contents before the records that refer to them
+                while (batch.hasRemaining())
+                    channel.write(batch);
+                channel.force(false);
+                if (snapshot != null)
+                    compact(snapshot, snapshotGeneration);
+            } catch (IOException | UncheckedIOException e) {
+                synchronized (this) {
+                    failure = (e instanceof UncheckedIOException) ? ((UncheckedIOException) e).getCause() : (IOException) e;
+                    notifyAll();
+                }
+                System.err.println("Mailbox log " + baseName + " failed: " + e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                durableSequence = sequence;
+                notifyAll();
+            }
+        }
+    }
+
+    // Switches to a new log generation and installs the snapshot taken just before.
+    private void compact(byte[] snapshot, long nextGeneration) throws IOException {
+        long oldGeneration = generation;
+        FileChannel next = FileChannel.open(store.logPath(baseName, nextGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.close();
+        channel = next;
+        generation = nextGeneration;
+
+        Path target = store.snapshotPath(baseName);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextGeneration)
+              .putInt(snapshot.length).putInt(checksum(snapshot, 0, snapshot.length)).flip();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer body = ByteBuffer.wrap(snapshot);
+            while (header.hasRemaining() || body.hasRemaining())
+                out.write(new ByteBuffer[] {header, body});
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(store.logPath(baseName, oldGeneration));
+    }
+
+    void close() throws IOException {
+        sync();
+        synchronized (io) {
+            channel.close();
+        }
+    }
+
+    static Mailbox readSnapshot(byte[] data, int offset, int length) throws IOException {
+        return MailboxCodec.decode(data, offset, length);
+    }
+
+    // Snapshots written before the MailboxCodec. The next compaction rewrites them.
+    private static Mailbox readSerializedSnapshot(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return (Mailbox) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Snapshot does not contain a mailbox");
+        }
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,219 @@
+package main.java.com.emailapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable storage for the server's mailboxes: one MailLog per user in a single
+ * directory, and one flusher thread that writes and fsyncs whichever logs have
+ * new records. Everything that arrives while a sync is running is written by the
+ * next one, so under load many changes share each fsync.
+ *
+ * In synchronous mode a change returns only once it is on disk; otherwise it
+ * returns at once and reaches the disk within a flush cycle, which suits the
+ * single-threaded NIO server. A log is compacted into a snapshot once it holds
+ * SNAPSHOT_RECORDS records or SNAPSHOT_BYTES bytes.
+ *
+ * Message contents are kept once, in a MessageStore under messages/, so
+ * recovering a large mailbox only loads subjects, timestamps and locators.
+ */
+public class MailStore implements Closeable {
+    private static final int SNAPSHOT_RECORDS = 10_000;
+    private static final long SNAPSHOT_BYTES = 8L << 20;
+    private static final String PREFIX = "u_";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String MESSAGES_DIRECTORY = "messages";
+
+    private final Path directory;
+    private final boolean synchronous;
+    private final MessageStore messages;
+    private final Map<String, MailLog> logs = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<MailLog> dirty = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    public MailStore(Path directory, boolean synchronous) throws IOException {
+        this.directory = directory;
+        this.synchronous = synchronous;
+        Files.createDirectories(directory);
+        messages = new MessageStore(directory.resolve(MESSAGES_DIRECTORY));
+        flusher = new Thread(this::flushLoop, "mailstore-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    boolean isSynchronous() { return synchronous; }
+
+    MessageStore getMessageStore() { return messages; }
+
+    // Moves an email's contents into the message store. One too large for a
+    // segment stays in memory and is logged in full.
+    void storeMessage(Email email) {
+        try {
+            email.setStored(messages, messages.append(email));
+        } catch (IllegalArgumentException e) {
+            // kept in memory
+        }
+    }
+
+    // Recovers every user that has files in the store directory.
+    public Map<String, Mailbox> recoverAll() throws IOException {
+        Map<String, Mailbox> mailboxes = new HashMap<>();
+        for (String user : storedUsers())
+            mailboxes.put(user, open(user));
+        return mailboxes;
+    }
+
+    // Returns the user's persisted mailbox, recovering it from disk on first use and
+    // creating an empty one for a new user.
+    public Mailbox open(String user) throws IOException {
+        try {
+            return logs.computeIfAbsent(user, u -> {
+                try {
+                    return MailLog.recover(this, baseName(u));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).getMailbox();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Returns the mailbox of a user the store already has, recovering it on first
+    // use, or null for an unknown user; unlike open(), never creates one.
+    public Mailbox find(String user) throws IOException {
+        MailLog log = logs.get(user);
+        if (log != null)
+            return log.getMailbox();
+        String base = baseName(user);
+        if (!Files.exists(snapshotPath(base)) && logGenerations(base).isEmpty())
+            return null;
+        return open(user);
+    }
+
+    // Flushes every log and stops the flusher.
+    @Override
+    public void close() throws IOException {
+        closed = true; // the flusher notices within one poll interval
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = null;
+        for (MailLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        try {
+            messages.close();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    // Queues a log that has new records; called once per batch under the log's monitor.
+    void schedule(MailLog log) {
+        dirty.add(log);
+    }
+
+    boolean snapshotDue(int records, long bytes) {
+        return records >= SNAPSHOT_RECORDS || bytes >= SNAPSHOT_BYTES;
+    }
+
+    private void flushLoop() {
+        List<MailLog> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                MailLog first = dirty.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            dirty.drainTo(batch);
+            for (MailLog log : batch)
+                log.sync();
+            batch.clear();
+        }
+    }
+
+    // --- File layout ---
+
+    Path snapshotPath(String baseName) {
+        return directory.resolve(baseName + SNAPSHOT_SUFFIX);
+    }
+
+    Path logPath(String baseName, long generation) {
+        return directory.resolve(baseName + "." + generation + LOG_SUFFIX);
+    }
+
+    // Log generations of a user, oldest first.
+    List<Long> logGenerations(String baseName) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + ".*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String middle = name.substring(baseName.length() + 1, name.length() - LOG_SUFFIX.length());
+                try {
+                    generations.add(Long.parseLong(middle));
+                } catch (NumberFormatException e) {
+                    // another user's file whose name starts with this one
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private List<String> storedUsers() throws IOException {
+        Set<String> users = new LinkedHashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String base;
+                if (name.endsWith(SNAPSHOT_SUFFIX)) {
+                    base = name.substring(0, name.length() - SNAPSHOT_SUFFIX.length());
+                } else if (name.endsWith(LOG_SUFFIX)) {
+                    String withoutSuffix = name.substring(0, name.length() - LOG_SUFFIX.length());
+                    base = withoutSuffix.substring(0, withoutSuffix.lastIndexOf('.'));
+                } else {
+                    continue;
+                }
+                String user = URLDecoder.decode(base.substring(PREFIX.length()), StandardCharsets.UTF_8);
+                users.add(user);
+            }
+        }
+        return new ArrayList<>(users);
+    }
+
+    // File name stem for a user; the encoding keeps any user name a single safe file name.
+    private static String baseName(String user) {
+        return PREFIX + URLEncoder.encode(user, StandardCharsets.UTF_8).replace("*", "%2A");
+    }
+}
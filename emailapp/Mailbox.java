@@ -1,59 +1,251 @@
 package main.java.com.emailapp;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import main.java.com.emailapp.exceptions.MailboxException;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Manages folders and emails with persistence using JSON.
+ * Manages folders and emails, saved in the binary MailboxCodec format, with
+ * JSON export and import for other tools. On the server a MailStore persists
+ * every change instead, through a MailboxJournal.
+ *
+ * The folder list is copy-on-write, so looking up a folder never waits for a
+ * folder being added or removed; see Folder for how emails are shared between
+ * threads.
  */
 public class Mailbox implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("inbox", Folder.class),
+        new ObjectStreamField("trash", Folder.class),
+        new ObjectStreamField("folders", ArrayList.class)
+    };
+    private static final Path DATA_FILE = Paths.get("src/main/resources/mailbox.dat");
+    private static final File JSON_FILE = new File("src/main/resources/mailbox.json");
+    private static final ObjectMapper JSON = new ObjectMapper();
     private Folder inbox = new Folder("Inbox");
     private Folder trash = new Folder("Trash");
-    private ArrayList<Folder> folders = new ArrayList<>();
+    private transient List<Folder> folders = new CopyOnWriteArrayList<>();
+    private transient MailboxJournal journal; // set while persisted by a MailStore
 
     public Mailbox() {
         folders.add(inbox);
         folders.add(trash);
     }
 
+    // Sends every later change of this mailbox and its folders to the journal.
+    void setJournal(MailboxJournal journal) {
+        this.journal = journal;
+        for (Folder folder : folders)
+            folder.setJournal(journal);
+    }
+
+    // Reconnects emails loaded from a snapshot to the store holding their contents.
+    void setMessageStore(MessageStore store) {
+        for (Folder folder : folders)
+            folder.setMessageStore(store);
+    }
+
     public void addFolder(String name) throws MailboxException {
+        MailboxJournal j = journal;
+        if (j == null) {
+            doAddFolder(name, null);
+            return;
+        }
+        long sequence;
+        synchronized (j) {
+            doAddFolder(name, j);
+            sequence = j.folderAdded(name);
+        }
+        j.awaitDurable(sequence);
+    }
+
+    // The journal is attached before the folder becomes visible, so no change to it goes unrecorded.
+    private synchronized Folder doAddFolder(String name, MailboxJournal j) throws MailboxException {
         if (getFolder(name) != null)
             throw new MailboxException("Folder exists.");
-        folders.add(new Folder(name));
+        Folder folder = new Folder(name);
+        folder.setJournal(j);
+        folders.add(folder);
+        return folder;
     }
 
     public void removeFolder(String name) throws MailboxException {
+        MailboxJournal j = journal;
+        if (j == null) {
+            doRemoveFolder(name);
+            return;
+        }
+        long sequence;
+        synchronized (j) {
+            doRemoveFolder(name).setJournal(null);
+            sequence = j.folderRemoved(name);
+        }
+        j.awaitDurable(sequence);
+    }
+
+    private synchronized Folder doRemoveFolder(String name) throws MailboxException {
         Folder folder = getFolder(name);
         if (folder == null || folder.getName().equals("Inbox") || folder.getName().equals("Trash"))
             throw new MailboxException("Cannot remove this folder.");
         folders.remove(folder);
+        return folder;
     }
 
     public Folder getFolder(String name) {
-        return folders.stream().filter(f -> f.getName().equals(name)).findFirst().orElse(null);
+        for (Folder folder : folders) {
+            if (folder.getName().equals(name))
+                return folder;
+        }
+        return null;
+    }
+
+    // The mailbox as it is now, for a MailboxCodec to write without holding any locks.
+    List<Folder.Capture> capture() {
+        List<Folder.Capture> captured = new ArrayList<>();
+        for (Folder folder : folders)
+            captured.add(folder.capture());
+        return captured;
+    }
+
+    static void encode(List<Folder.Capture> captured, MailboxCodec.Encoder out) throws IOException {
+        out.putVarint(captured.size());
+        for (Folder.Capture folder : captured)
+            folder.encode(out);
+    }
+
+    static Mailbox decode(MailboxCodec.Decoder in) throws IOException {
+        int count = in.getVarint();
+        List<Folder> decoded = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            decoded.add(Folder.decode(in));
+        return new Mailbox(decoded);
+    }
+
+    // A mailbox of the given folders, adding Inbox and Trash if they are missing.
+    private Mailbox(List<Folder> folders) {
+        this.folders.addAll(folders);
+        inbox = getFolder("Inbox");
+        if (inbox == null) {
+            inbox = new Folder("Inbox");
+            this.folders.add(0, inbox);
+        }
+        trash = getFolder("Trash");
+        if (trash == null) {
+            trash = new Folder("Trash");
+            this.folders.add(1, trash);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("inbox", inbox);
+        fields.put("trash", trash);
+        fields.put("folders", new ArrayList<>(folders));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        inbox = (Folder) fields.get("inbox", null);
+        trash = (Folder) fields.get("trash", null);
+        folders = new CopyOnWriteArrayList<>((ArrayList<Folder>) fields.get("folders", null));
     }
 
     public void saveMailbox() throws MailboxException {
-        try {
-            new ObjectMapper().writeValue(new File("src/main/resources/mailbox.json"), this);
+        try (FileChannel channel = FileChannel.open(DATA_FILE, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MailboxCodec.write(this, channel);
         } catch (IOException e) {
             throw new MailboxException("Failed to save mailbox.");
         }
     }
 
+    // Loads the saved mailbox, falling back to the JSON file earlier versions saved.
     public static Mailbox loadMailbox() throws MailboxException {
-        File file = new File("src/main/resources/mailbox.json");
-        if (!file.exists())
-            return new Mailbox();
+        if (Files.exists(DATA_FILE)) {
+            try (FileChannel channel = FileChannel.open(DATA_FILE, StandardOpenOption.READ)) {
+                return MailboxCodec.read(channel);
+            } catch (IOException e) {
+                throw new MailboxException("Failed to load mailbox.");
+            }
+        }
+        if (JSON_FILE.exists())
+            return importJson(JSON_FILE);
+        return new Mailbox();
+    }
+
+    // Writes every folder and email as JSON: {"folders": [{"name", "sortingMethod",
+    // "emails": [{"from", "to", "cc", "bcc", "subject", "body", "timestamp"}]}]},
+    // with timestamps in epoch millis.
+    public void exportJson(File file) throws MailboxException {
+        ObjectNode root = JSON.createObjectNode();
+        ArrayNode folderNodes = root.putArray("folders");
+        for (Folder folder : folders) {
+            ObjectNode folderNode = folderNodes.addObject();
+            folderNode.put("name", folder.getName());
+            folderNode.put("sortingMethod", folder.getSortingMethod());
+            ArrayNode emailNodes = folderNode.putArray("emails");
+            for (Email email : folder.getEmailsByDate()) {
+                ObjectNode emailNode = emailNodes.addObject();
+                emailNode.put("from", email.getFrom());
+                emailNode.put("to", email.getTo());
+                emailNode.put("cc", email.getCc());
+                emailNode.put("bcc", email.getBcc());
+                emailNode.put("subject", email.getSubject());
+                emailNode.put("body", email.getBody());
+                emailNode.put("timestamp", email.getTimestampMillis());
+            }
+        }
+        try {
+            JSON.writeValue(file, root);
+        } catch (IOException e) {
+            throw new MailboxException("Failed to export mailbox.");
+        }
+    }
+
+    // Reads a mailbox written by exportJson(). Missing fields are left empty.
+    public static Mailbox importJson(File file) throws MailboxException {
+        JsonNode root;
         try {
-            return new ObjectMapper().readValue(file, Mailbox.class);
+            root = JSON.readTree(file);
         } catch (IOException e) {
-            throw new MailboxException("Failed to load mailbox.");
+            throw new MailboxException("Failed to import mailbox.");
+        }
+        List<Folder> imported = new ArrayList<>();
+        for (JsonNode folderNode : root.path("folders")) {
+            Folder folder = new Folder(folderNode.path("name").asText("Inbox"));
+            List<Email> emails = new ArrayList<>();
+            for (JsonNode emailNode : folderNode.path("emails")) {
+                emails.add(new Email(text(emailNode, "from"), text(emailNode, "to"), text(emailNode, "cc"),
+                        text(emailNode, "bcc"), text(emailNode, "subject"), text(emailNode, "body"),
+                        emailNode.path("timestamp").asLong()));
+            }
+            folder.restore(emails, folderNode.path("sortingMethod").asText("dateDesc"), null);
+            imported.add(folder);
         }
+        return new Mailbox(imported);
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return (value == null || value.isNull()) ? null : value.asText();
     }
 }
@@ -0,0 +1,350 @@
+package main.java.com.emailapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned binary form of a Mailbox, its folders and their emails, used for
+ * MailStore snapshots and Mailbox.saveMailbox(). Mailbox, Folder and Email each
+ * encode and decode their own part; this class holds the header and the
+ * primitives. Search indexes are not saved: a loaded folder builds its own on
+ * the first SEARCH. Files that still carry one are read with SearchIndex.decode().
+ *
+ * The data starts with MAGIC and a varint version. Integers are varints (7 bits
+ * a byte, low bits first), signed deltas are zigzag-encoded, and strings and
+ * byte arrays are a varint of length + 1 (0 for null) followed by the bytes,
+ * strings in UTF-8. Timestamps are epoch millis, each written as the distance
+ * from the previous email of its folder, which is small since folders are
+ * written in date order.
+ *
+ * An Encoder either collects its output in memory or streams through a fixed
+ * buffer into a channel; a Decoder reads from a buffer or refills one from a channel.
+ */
+final class MailboxCodec {
+    static final int MAGIC = 0x4d424f58; // "MBOX"
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private MailboxCodec() {
+    }
+
+    static byte[] encode(Mailbox mailbox) throws IOException {
+        return encode(mailbox.capture());
+    }
+
+    // Encodes a mailbox captured earlier, see Mailbox.capture().
+    static byte[] encode(List<Folder.Capture> mailbox) throws IOException {
+        Encoder out = new Encoder();
+        writeMailbox(mailbox, out);
+        return out.toByteArray();
+    }
+
+    static Mailbox decode(byte[] data, int offset, int length) throws IOException {
+        return readMailbox(new Decoder(ByteBuffer.wrap(data, offset, length)));
+    }
+
+    static void write(Mailbox mailbox, WritableByteChannel channel) throws IOException {
+        Encoder out = new Encoder(channel);
+        writeMailbox(mailbox.capture(), out);
+        out.finish();
+    }
+
+    static Mailbox read(ReadableByteChannel channel) throws IOException {
+        return readMailbox(new Decoder(channel));
+    }
+
+    private static void writeMailbox(List<Folder.Capture> mailbox, Encoder out) throws IOException {
+        out.putInt(MAGIC);
+        out.putVarint(VERSION);
+        Mailbox.encode(mailbox, out);
+    }
+
+    private static Mailbox readMailbox(Decoder in) throws IOException {
+        if (in.getInt() != MAGIC)
+            throw new IOException("Not a mailbox");
+        int version = in.getVarint();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported mailbox format version " + version);
+        return Mailbox.decode(in);
+    }
+
+    static final class Encoder {
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private final WritableByteChannel channel; // null: keep full buffers in chunks instead
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long chunkBytes;
+
+        Encoder() {
+            channel = null;
+        }
+
+        Encoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer[position++] = (byte) (value >>> 24);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        }
+
+        void putVarint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void putVarlong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void putZigzag(long value) throws IOException {
+            putVarlong((value << 1) ^ (value >> 63));
+        }
+
+        void putString(String value) throws IOException {
+            if (value != null && value.length() <= BUFFER_SIZE - 5) {
+                ensure(value.length() + 5);
+                int start = position;
+                putVarint(value.length() + 1);
+                if (putAscii(value))
+                    return;
+                position = start;
+            }
+            putBytes((value == null) ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Writes the concatenation of parts as one string, without building it.
+        void putString(String[] parts) throws IOException {
+            int length = 0;
+            for (String part : parts)
+                length += part.length();
+            if (length <= BUFFER_SIZE - 5) {
+                ensure(length + 5);
+                int start = position;
+                putVarint(length + 1);
+                boolean ascii = true;
+                for (int p = 0; p < parts.length && ascii; p++)
+                    ascii = putAscii(parts[p]);
+                if (ascii)
+                    return;
+                position = start;
+            }
+            putString(String.join("", parts));
+        }
+
+        // Copies a string into the buffer, which has room for it, if it is ASCII, whose
+        // UTF-8 bytes are its chars; most strings are. Returns false at any other char,
+        // having copied part of it.
+        private boolean putAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80)
+                    return false;
+                buffer[position++] = (byte) c;
+            }
+            return true;
+        }
+
+        void putBytes(byte[] value) throws IOException {
+            if (value == null) {
+                putVarint(0);
+                return;
+            }
+            putVarint(value.length + 1);
+            int offset = 0;
+            while (offset < value.length) {
+                if (position == buffer.length)
+                    ensure(1);
+                int n = Math.min(buffer.length - position, value.length - offset);
+                System.arraycopy(value, offset, buffer, position, n);
+                position += n;
+                offset += n;
+            }
+        }
+
+        // Writes out whatever is still buffered; only for an encoder over a channel.
+        void finish() throws IOException {
+            drain();
+        }
+
+        // Everything encoded so far; only for an encoder without a channel.
+        byte[] toByteArray() {
+            long total = chunkBytes + position;
+            if (total > Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("Mailbox too large to encode in memory");
+            byte[] bytes = new byte[(int) total];
+            int offset = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+                offset += chunk.length;
+            }
+            System.arraycopy(buffer, 0, bytes, offset, position);
+            return bytes;
+        }
+
+        // Full buffers are set aside rather than copied into a larger one, so a
+        // large mailbox is copied once, by toByteArray().
+        private void ensure(int bytes) throws IOException {
+            if (buffer.length - position >= bytes)
+                return;
+            if (channel != null) {
+                drain();
+            } else {
+                chunks.add((position == buffer.length) ? buffer : Arrays.copyOf(buffer, position));
+                chunkBytes += position;
+                buffer = new byte[BUFFER_SIZE];
+                position = 0;
+            }
+        }
+
+        private void drain() throws IOException {
+            ByteBuffer out = ByteBuffer.wrap(buffer, 0, position);
+            while (out.hasRemaining())
+                channel.write(out);
+            position = 0;
+        }
+    }
+
+    static final class Decoder {
+        private ByteBuffer buffer;
+        private final ReadableByteChannel channel; // null: the buffer holds all the data
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            channel = null;
+        }
+
+        Decoder(ReadableByteChannel channel) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+            this.channel = channel;
+        }
+
+        int getByte() throws IOException {
+            require(1);
+            return buffer.get() & 0xff;
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        int getVarint() throws IOException {
+            if (buffer.remaining() >= 5 && buffer.hasArray()) {
+                // read straight from the array, the common case
+                byte[] array = buffer.array();
+                int start = buffer.arrayOffset() + buffer.position();
+                int value = 0;
+                for (int i = 0; i < 5; i++) {
+                    int b = array[start + i];
+                    value |= (b & 0x7f) << (7 * i);
+                    if (b >= 0) {
+                        if (i == 4 && (b & 0xf0) != 0)
+                            break;
+                        buffer.position(buffer.position() + i + 1);
+                        return value;
+                    }
+                }
+                throw new IOException("Malformed mailbox data");
+            }
+            long value = getVarlong();
+            if (value != (int) value)
+                throw new IOException("Malformed mailbox data");
+            return (int) value;
+        }
+
+        long getVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = (buffer.hasRemaining()) ? buffer.get() & 0xff : getByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed mailbox data");
+        }
+
+        long getZigzag() throws IOException {
+            long value = getVarlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String getString() throws IOException {
+            int length = getLength();
+            if (length < 0)
+                return null;
+            if (buffer.remaining() >= length && buffer.hasArray()) {
+                // decode in place, without an intermediate copy
+                String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                                          StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return value;
+            }
+            return new String(read(length), StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes() throws IOException {
+            int length = getLength();
+            return (length < 0) ? null : read(length);
+        }
+
+        private int getLength() throws IOException {
+            int length = getVarint() - 1;
+            if (length < -1 || (channel == null && length > buffer.remaining()))
+                throw new IOException("Malformed mailbox data");
+            return length;
+        }
+
+        private byte[] read(int length) throws IOException {
+            byte[] value = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining())
+                    require(1);
+                int n = Math.min(buffer.remaining(), length - offset);
+                buffer.get(value, offset, n);
+                offset += n;
+            }
+            return value;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return;
+            if (channel != null) {
+                buffer.compact();
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0)
+                        break;
+                }
+                buffer.flip();
+            }
+            if (buffer.remaining() < bytes)
+                throw new EOFException("Mailbox data ends early");
+        }
+    }
+}
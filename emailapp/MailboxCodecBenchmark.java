@@ -0,0 +1,220 @@
+package main.java.com.emailapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import main.java.com.emailapp.exceptions.MailboxException;
+
+/**
+ * Times saving and loading one large mailbox the way the server originally did
+ * it, as JSON (exportJson/importJson), with Java serialization (the earlier
+ * snapshot format) and with the MailboxCodec through a FileChannel. Each format
+ * runs several rounds and the best is reported, so the JIT has warmed up. Every
+ * save includes writing its file.
+ *
+ * The original saveMailbox()/loadMailbox() created a new ObjectMapper on every
+ * call and data-bound the mailbox's folders and emails by reflection, with each
+ * timestamp a GregorianCalendar. "ObjectMapper (original)" repeats that on a
+ * copy of the mailbox in the original shape, built before timing starts; it is
+ * the baseline the codec's speedups are measured against.
+ *
+ * "MailboxCodec" saves the emails with their bodies, as Mailbox.saveMailbox()
+ * does. "MailboxCodec, stored" is a MailStore snapshot of the same mailbox,
+ * whose bodies and addresses are in the MessageStore; its load includes
+ * attaching the store. Neither saves a search index.
+ *
+ * Usage: MailboxCodecBenchmark [emails] [rounds]
+ */
+final class MailboxCodecBenchmark {
+    private static final String[] WORDS = {
+        "meeting", "report", "quarterly", "update", "lunch", "review", "budget", "draft",
+        "schedule", "invoice", "project", "release", "notes", "deadline", "team", "question"
+    };
+
+    private interface Step {
+        void run() throws IOException, MailboxException;
+    }
+
+    public static void main(String[] args) throws IOException, MailboxException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        Mailbox mailbox = build(count);
+        Path dir = Files.createTempDirectory("mailbox-bench");
+        File original = dir.resolve("mailbox-original.json").toFile();
+        File json = dir.resolve("mailbox.json").toFile();
+        Path binary = dir.resolve("mailbox.dat");
+        Path snapshot = dir.resolve("mailbox.snap");
+        byte[][] serialized = new byte[1][];
+
+        System.out.println("Emails: " + count + ", best of " + rounds + " rounds");
+        System.out.println(String.format("%-24s %10s %10s %12s", "Format", "Save ms", "Load ms", "Bytes"));
+        OriginalMailbox originalMailbox = OriginalMailbox.of(mailbox);
+        long[] originalTimes = {
+            best(rounds, () -> new ObjectMapper().writeValue(original, originalMailbox)),
+            best(rounds, () -> new ObjectMapper().readValue(original, OriginalMailbox.class))
+        };
+        report("ObjectMapper (original)", originalTimes, original.length());
+        long[] jsonTimes = {
+            best(rounds, () -> mailbox.exportJson(json)),
+            best(rounds, () -> Mailbox.importJson(json))
+        };
+        report("JSON", jsonTimes, json.length());
+        long[] javaTimes = {
+            best(rounds, () -> serialized[0] = serialize(mailbox)),
+            best(rounds, () -> deserialize(serialized[0]))
+        };
+        report("Java serialization", javaTimes, serialized[0].length);
+        long[] codecTimes = {
+            best(rounds, () -> save(mailbox, binary)),
+            best(rounds, () -> load(binary))
+        };
+        report("MailboxCodec", codecTimes, Files.size(binary));
+
+        long[] storedTimes;
+        try (MessageStore messages = new MessageStore(dir.resolve("messages"))) {
+            Mailbox stored = build(count);
+            for (String name : new String[] {"Inbox", "Archive"}) {
+                for (Email email : stored.getFolder(name).getEmails())
+                    email.setStored(messages, messages.append(email));
+            }
+            storedTimes = new long[] {
+                best(rounds, () -> save(stored, snapshot)),
+                best(rounds, () -> load(snapshot).setMessageStore(messages))
+            };
+        }
+        report("MailboxCodec, stored", storedTimes, Files.size(snapshot));
+
+        System.out.println(String.format("Codec speedup vs ObjectMapper (original): save %.1fx, load %.1fx;"
+                        + " stored: save %.1fx, load %.1fx",
+                ratio(originalTimes[0], codecTimes[0]), ratio(originalTimes[1], codecTimes[1]),
+                ratio(originalTimes[0], storedTimes[0]), ratio(originalTimes[1], storedTimes[1])));
+        System.out.println(String.format("Codec speedup: save %.1fx / %.1fx, load %.1fx / %.1fx"
+                        + " (vs JSON / Java serialization)",
+                ratio(jsonTimes[0], codecTimes[0]), ratio(javaTimes[0], codecTimes[0]),
+                ratio(jsonTimes[1], codecTimes[1]), ratio(javaTimes[1], codecTimes[1])));
+
+        try (DirectoryStream<Path> messages = Files.newDirectoryStream(dir.resolve("messages"))) {
+            for (Path segment : messages)
+                Files.delete(segment);
+        }
+        Files.delete(dir.resolve("messages"));
+        for (Path file : new Path[] {original.toPath(), json.toPath(), binary, snapshot})
+            Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    private static void save(Mailbox mailbox, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MailboxCodec.write(mailbox, channel);
+        }
+    }
+
+    private static Mailbox load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return MailboxCodec.read(channel);
+        }
+    }
+
+    private static Mailbox build(int count) throws MailboxException {
+        Mailbox mailbox = new Mailbox();
+        mailbox.addFolder("Archive");
+        Folder inbox = mailbox.getFolder("Inbox");
+        Folder archive = mailbox.getFolder("Archive");
+        for (int i = 0; i < count; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int w = 0; w < 40; w++)
+                body.append(WORDS[(i * 7 + w * 3) % WORDS.length]).append(w % 10 == 9 ? ".\n" : " ");
+            Email email = new Email("user" + (i % 500), "user" + (i % 37) + ", team" + (i % 11), "", "",
+                    WORDS[i % WORDS.length] + " " + WORDS[(i / 16) % WORDS.length] + " #" + i,
+                    body.toString(), 1_600_000_000_000L + i * 60_000L);
+            (i % 4 == 0 ? archive : inbox).addEmail(email);
+        }
+        return mailbox;
+    }
+
+    // The mailbox as the original classes held it, for ObjectMapper to bind.
+    public static final class OriginalMailbox {
+        public List<OriginalFolder> folders = new ArrayList<>();
+
+        static OriginalMailbox of(Mailbox mailbox) {
+            OriginalMailbox original = new OriginalMailbox();
+            for (Folder.Capture folder : mailbox.capture()) {
+                OriginalFolder copy = new OriginalFolder();
+                copy.name = folder.getName();
+                copy.sortingMethod = folder.getSortingMethod();
+                for (Email email : folder.getEmailsByDate()) {
+                    OriginalEmail e = new OriginalEmail();
+                    e.from = email.getFrom();
+                    e.to = email.getTo();
+                    e.cc = email.getCc();
+                    e.bcc = email.getBcc();
+                    e.subject = email.getSubject();
+                    e.body = email.getBody();
+                    e.timestamp = email.getTimestamp();
+                    copy.emails.add(e);
+                }
+                original.folders.add(copy);
+            }
+            return original;
+        }
+    }
+
+    public static final class OriginalFolder {
+        public String name;
+        public String sortingMethod;
+        public List<OriginalEmail> emails = new ArrayList<>();
+    }
+
+    public static final class OriginalEmail {
+        public String from, to, cc, bcc, subject, body;
+        public GregorianCalendar timestamp;
+    }
+
+    private static long best(int rounds, Step step) throws IOException, MailboxException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            step.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static byte[] serialize(Mailbox mailbox) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mailbox);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Mailbox deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Mailbox) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void report(String format, long[] nanos, long bytes) {
+        String load = (nanos[1] < 0) ? "-" : String.format("%.1f", nanos[1] / 1e6);
+        System.out.println(String.format("%-24s %10.1f %10s %12d", format, nanos[0] / 1e6, load, bytes));
+    }
+
+    private static double ratio(long slow, long fast) {
+        return (double) slow / Math.max(fast, 1);
+    }
+}
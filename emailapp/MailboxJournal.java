@@ -0,0 +1,20 @@
+package main.java.com.emailapp;
+
+/**
+ * Receives every change made to a Mailbox so it can be made durable. Mailbox
+ * and Folder call the record methods right after applying a change, while
+ * holding the journal's monitor, so changes and records are in the same order;
+ * each returns a sequence number to pass to awaitDurable() once the monitor has
+ * been released.
+ */
+interface MailboxJournal {
+    long emailAdded(String folder, Email email);
+    long emailRemoved(String folder, int index);
+    long folderAdded(String folder);
+    long folderRemoved(String folder);
+    long sortingMethodChanged(String folder, String method);
+
+    // Blocks until the record with the given sequence number is on disk, if the
+    // journal is configured to wait.
+    void awaitDurable(long sequence);
+}
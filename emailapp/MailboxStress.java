@@ -0,0 +1,204 @@
+package main.java.com.emailapp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import main.java.com.emailapp.exceptions.MailboxException;
+
+/**
+ * Runs many threads against one mailbox persisted by a MailStore, then recovers
+ * it from disk and checks that the recovered mailbox matches the live one:
+ * folders, sorting methods, emails in order with their contents, and search
+ * results. Writers add and remove emails, change sorting methods and add and
+ * remove folders while readers list and search; the operations add up to enough
+ * log records for several snapshots. Runs once with a synchronous store and once
+ * with an asynchronous one, and exits with status 1 on a mismatch.
+ *
+ * Usage: MailboxStress [writers] [operations per writer]
+ */
+final class MailboxStress {
+    private static final String USER = "stress";
+    private static final String[] WORDS = {
+        "meeting", "report", "quarterly", "update", "lunch", "review", "budget", "draft"
+    };
+    private static final String[] METHODS = { "dateDesc", "dateAsc", "subjectAsc", "subjectDesc" };
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 4_000;
+        boolean matched = run(true, writers, operations);
+        matched &= run(false, writers, operations);
+        if (!matched)
+            System.exit(1);
+    }
+
+    private static boolean run(boolean synchronous, int writers, int operations) throws Exception {
+        Path dir = Files.createTempDirectory("mailbox-stress");
+        String mode = synchronous ? "synchronous" : "asynchronous";
+        try {
+            long start = System.nanoTime();
+            String live;
+            try (MailStore store = new MailStore(dir, synchronous)) {
+                Mailbox mailbox = store.open(USER);
+                for (int w = 0; w < writers; w++)
+                    mailbox.addFolder("Folder" + w);
+                live = hammer(mailbox, writers, operations);
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            String recovered;
+            try (MailStore store = new MailStore(dir, synchronous)) {
+                recovered = digest(store.open(USER), writers);
+            }
+            boolean matched = live.equals(recovered);
+            System.out.println(String.format("%-12s %d writers x %d operations in %d ms: %s",
+                    mode, writers, operations, elapsed, matched ? "recovered mailbox matches" : "MISMATCH"));
+            if (!matched)
+                System.out.println("  first difference at character " + firstDifference(live, recovered));
+            return matched;
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // Runs the writers and readers to completion and returns the live mailbox's digest.
+    private static String hammer(Mailbox mailbox, int writers, int operations) throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writing = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            writing.add(start("writer-" + w, failure, () -> write(mailbox, writer, operations)));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> reading = new ArrayList<>();
+        for (int r = 0; r < Math.max(1, writers / 2); r++) {
+            int reader = r;
+            reading.add(start("reader-" + r, failure, () -> {
+                Random random = new Random(-1 - reader);
+                while (!done.get())
+                    read(mailbox, writers, random);
+            }));
+        }
+        for (Thread thread : writing)
+            thread.join();
+        done.set(true);
+        for (Thread thread : reading)
+            thread.join();
+        if (failure.get() != null)
+            throw new IllegalStateException("Worker failed", failure.get());
+        return digest(mailbox, writers);
+    }
+
+    private static Thread start(String name, AtomicReference<Throwable> failure, Task task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    // Each writer owns its folder and its temporary folder, so removals never race
+    // another writer; the inbox is shared.
+    private static void write(Mailbox mailbox, int writer, int operations) throws MailboxException {
+        Random random = new Random(writer);
+        Folder own = mailbox.getFolder("Folder" + writer);
+        Folder inbox = mailbox.getFolder("Inbox");
+        String temporary = "Temp" + writer;
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(20);
+            if (choice < 11) {
+                own.addEmail(email(random, writer, i));
+            } else if (choice < 15) {
+                inbox.addEmail(email(random, writer, i));
+            } else if (choice < 18) {
+                if (!own.getEmails().isEmpty())
+                    own.removeEmail(random.nextInt(own.getEmails().size()));
+            } else if (choice == 18) {
+                own.setSortingMethod(METHODS[random.nextInt(METHODS.length)]);
+            } else if (mailbox.getFolder(temporary) == null) {
+                mailbox.addFolder(temporary);
+                mailbox.getFolder(temporary).addEmail(email(random, writer, i));
+            } else {
+                mailbox.removeFolder(temporary);
+            }
+        }
+    }
+
+    private static void read(Mailbox mailbox, int writers, Random random) {
+        Folder folder = mailbox.getFolder((random.nextInt(4) == 0) ? "Inbox" : "Folder" + random.nextInt(writers));
+        List<Email> emails = folder.getEmails();
+        if (!emails.isEmpty())
+            emails.get(random.nextInt(emails.size())).getBody();
+        folder.search(SearchIndex.Query.parse(WORDS[random.nextInt(WORDS.length)]));
+    }
+
+    private static Email email(Random random, int writer, int operation) {
+        String subject = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + operation;
+        String body = "From writer " + writer + ": " + WORDS[random.nextInt(WORDS.length)] + " #" + random.nextInt(1000);
+        // Whole seconds, so some emails share a timestamp and ties are exercised.
+        long timestamp = 1_600_000_000_000L + random.nextInt(1_000_000) * 1000L;
+        return new Email("writer" + writer + "@example.com", "user" + random.nextInt(50) + "@example.com",
+                (random.nextInt(4) == 0) ? "cc@example.com" : "", "", subject, body, timestamp);
+    }
+
+    // Everything recovery has to bring back, as one string to compare.
+    private static String digest(Mailbox mailbox, int writers) {
+        List<String> names = new ArrayList<>(List.of("Inbox", "Trash"));
+        for (int w = 0; w < writers; w++) {
+            names.add("Folder" + w);
+            names.add("Temp" + w);
+        }
+        StringBuilder digest = new StringBuilder();
+        for (String name : names) {
+            Folder folder = mailbox.getFolder(name);
+            if (folder == null)
+                continue;
+            digest.append("folder ").append(name).append(' ').append(folder.getSortingMethod()).append('\n');
+            for (Email email : folder.getEmails()) {
+                digest.append(email.getTimestampMillis()).append('|').append(email.getFrom()).append('|')
+                      .append(email.getTo()).append('|').append(email.getCc()).append('|')
+                      .append(email.getBcc()).append('|').append(email.getSubject()).append('|')
+                      .append(email.getBody()).append('\n');
+            }
+            for (String word : WORDS) {
+                List<String> found = new ArrayList<>();
+                for (Email email : folder.search(SearchIndex.Query.parse(word)))
+                    found.add(email.getTimestampMillis() + " " + email.getSubject());
+                Collections.sort(found);
+                digest.append("search ").append(word).append(' ').append(found).append('\n');
+            }
+        }
+        return digest.toString();
+    }
+
+    private static int firstDifference(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i))
+                return i;
+        }
+        return length;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package main.java.com.emailapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store for message contents, kept in memory-mapped segment files
+ * of up to SEGMENT_SIZE bytes. An email written here is afterwards identified by
+ * a locator (segment number and offset), so a Folder only has to keep the
+ * subject, timestamp and locator of each message on the heap; addresses and
+ * body are read from the mapped segment when they are asked for.
+ *
+ * Each record is [payload length][CRC32 of payload][to][cc][bcc][subject][body]
+ * [from], every field a length-prefixed UTF-8 string (-1 for null). Fields past
+ * the end of a record read as null, so records from before a field was added
+ * stay valid. Segments are sized up front and filled through the mapping; on
+ * open the last segment is scanned to find where its valid records end. Space
+ * of deleted messages is not reclaimed.
+ */
+class MessageStore implements Closeable {
+    static final int TO = 0;
+    static final int CC = 1;
+    static final int BCC = 2;
+    static final int SUBJECT = 3;
+    static final int BODY = 4;
+    static final int FROM = 5;
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int RECORD_HEADER = 8;
+    private static final int OFFSET_BITS = 40;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private MappedByteBuffer active;
+    private int activeEnd;
+    private boolean dirty;
+
+    MessageStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path ignored : files)
+                count++;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!Files.exists(segmentPath(i)))
+                throw new IOException("Missing message segment " + segmentPath(i));
+            segments.add(map(i));
+        }
+        if (segments.isEmpty())
+            segments.add(map(0));
+        active = segments.get(segments.size() - 1);
+        activeEnd = scanEnd(active);
+    }
+
+    // Writes the email's contents and returns their locator. The bytes reach the
+    // disk on the next force().
+    synchronized long append(Email email) {
+        byte[][] fields = {
+            encode(email.getTo()), encode(email.getCc()), encode(email.getBcc()),
+            encode(email.getSubject()), encode(email.getBody()), encode(email.getFrom())
+        };
+        int length = 0;
+        for (byte[] field : fields)
+            length += 4 + (field == null ? 0 : field.length);
+        if (RECORD_HEADER + length > SEGMENT_SIZE)
+            throw new IllegalArgumentException("Message too large for the message store");
+        if (activeEnd + RECORD_HEADER + length > SEGMENT_SIZE)
+            startSegment();
+
+        int start = activeEnd;
+        ByteBuffer out = active.duplicate();
+        out.position(start + RECORD_HEADER);
+        for (byte[] field : fields) {
+            if (field == null) {
+                out.putInt(-1);
+            } else {
+                out.putInt(field.length).put(field);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(active.duplicate().position(start + RECORD_HEADER).limit(start + RECORD_HEADER + length));
+        out.putInt(start + 4, (int) crc.getValue());
+        out.putInt(start, length); // written last: a non-zero length marks a complete record
+        activeEnd = start + RECORD_HEADER + length;
+        dirty = true;
+        return ((long) (segments.size() - 1) << OFFSET_BITS) | start;
+    }
+
+    // Reads one field (TO, CC, BCC, SUBJECT, BODY or FROM) of a stored message.
+    String read(long locator, int field) {
+        MappedByteBuffer segment;
+        synchronized (this) {
+            segment = segments.get((int) (locator >>> OFFSET_BITS));
+        }
+        int start = (int) (locator & ((1L << OFFSET_BITS) - 1));
+        int end = start + RECORD_HEADER + segment.getInt(start);
+        int position = start + RECORD_HEADER;
+        for (int i = 0; i < field && position < end; i++) {
+            int length = segment.getInt(position);
+            position += 4 + Math.max(length, 0);
+        }
+        if (position >= end)
+            return null;
+        int length = segment.getInt(position);
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        segment.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Flushes appended messages to disk.
+    void force() {
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (!dirty)
+                return;
+            dirty = false;
+            segment = active;
+        }
+        segment.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private void startSegment() {
+        active.force();
+        try {
+            active = map(segments.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.add(active);
+        activeEnd = 0;
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    // Offset just past the last complete record of a segment.
+    private static int scanEnd(MappedByteBuffer segment) {
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER <= SEGMENT_SIZE) {
+            int length = segment.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > SEGMENT_SIZE)
+                break;
+            crc.reset();
+            crc.update(segment.duplicate().position(position + RECORD_HEADER).limit(position + RECORD_HEADER + length));
+            if ((int) crc.getValue() != segment.getInt(position + 4))
+                break;
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+    }
+
+    private static byte[] encode(String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,366 @@
+package main.java.com.emailapp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Non-blocking EmailServer mode: one thread multiplexes every connection with a
+ * Selector. Each connection keeps only its protocol state, the bytes of a line
+ * still being received and any reply bytes the socket has not accepted yet, so
+ * an idle session costs a few hundred bytes instead of a thread and its stack.
+ *
+ * The selector thread only moves bytes. What a read brings in is handed to a
+ * small worker pool, which splits it into lines or frames and runs them through
+ * the session, so opening a mailbox (recovering it from its log) or committing
+ * to a folder never holds up other connections. A connection has at most one
+ * batch with the workers and is not read meanwhile, so its commands run in
+ * order; the worker queues the finished connection and wakes the selector,
+ * which sends the replies.
+ *
+ * Lines are split the way BufferedReader.readLine() splits them (\n, \r or
+ * \r\n) and decoded with the platform charset, and replies end with the
+ * platform line separator, so clients see exactly what the blocking server sends.
+ * Replies are collected while a read's lines are handled and leave in one
+ * write, so in line mode Output.flush() has nothing to do here. In framed mode
+ * (see FramedProtocol) the same buffer collects one reply frame per request, so
+ * a batch of pipelined requests is still answered with a single write.
+ */
+final class NioEmailServer {
+    private static final int BACKLOG = 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_BYTES = 1 << 20;
+    private static final int MAX_PENDING_BYTES = 1 << 20; // stop reading until the client catches up
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final int WORKER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final int port;
+    private final Function<String, Mailbox> mailboxes;
+    private final Consumer<Email> deliveries;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+    private final ConcurrentLinkedQueue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private ExecutorService workers;
+    private Selector selector;
+
+    NioEmailServer(int port, Function<String, Mailbox> mailboxes, Consumer<Email> deliveries) {
+        this.port = port;
+        this.mailboxes = mailboxes;
+        this.deliveries = deliveries;
+    }
+
+    // Runs the event loop until the server socket fails.
+    void run() throws IOException {
+        AtomicInteger threads = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, task -> {
+            Thread thread = new Thread(task, "nio-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Selector selector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.selector = selector;
+            server.bind(new InetSocketAddress(port), BACKLOG);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select();
+                Connection done;
+                while ((done = completed.poll()) != null)
+                    done.finish();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        acceptAll(server, selector);
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.writePending();
+                    } catch (IOException e) {
+                        System.err.println("Client connection error: " + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void acceptAll(ServerSocketChannel server, Selector selector) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            System.out.println("New client connected from " + remote.getAddress());
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connection.session.start(); // no mailbox involved yet
+            try {
+                connection.takeOutput();
+                connection.writePending();
+            } catch (IOException e) {
+                System.err.println("Client connection error: " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    private final class Connection implements ClientSession.Output {
+        final SocketChannel channel;
+        final ClientSession session;
+        SelectionKey key;
+
+        // Used by whichever thread runs the session: the worker with the current
+        // batch, or the selector thread while none is out.
+        // Bytes of the line or frame being received, and whether a \n right after a
+        // \r is still part of the previous line terminator. frameLength is -1 until
+        // a frame's header has been received.
+        byte[] partial = NO_BYTES;
+        int partialLength;
+        boolean skipLineFeed;
+        int frameLength = -1;
+        final StringBuilder frame = new StringBuilder(); // reply lines of the current frame
+        ByteBuffer output; // replies of the current batch, in write mode; null if none
+        boolean endOfInput; // the batch was the end of the stream
+        boolean sessionClosed;
+        IOException failure;
+
+        // Used by the selector thread only.
+        boolean busy; // a batch is with the workers
+        boolean inputClosed;
+        ByteBuffer pending; // reply bytes not yet written, in write mode; null when everything was sent
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            session = new ClientSession(mailboxes, deliveries, this);
+        }
+
+        @Override
+        public void println(String line) {
+            if (session.isFramed()) {
+                if (frame.length() > 0)
+                    frame.append('\n');
+                frame.append(line);
+                return;
+            }
+            byte[] bytes = line.getBytes(charset);
+            output = ensure(output, bytes.length + lineSeparator.length);
+            output.put(bytes).put(lineSeparator);
+        }
+
+        @Override
+        public void flush() {
+            if (!session.isFramed())
+                return;
+            byte[] bytes = FramedProtocol.encode(frame.toString());
+            frame.setLength(0);
+            if (frame.capacity() > 4096)
+                frame.trimToSize();
+            output = ensure(output, bytes.length);
+            output.put(bytes);
+        }
+
+        // Reads what the client sent and hands it to a worker; reading stops until
+        // the worker is done with it.
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n == 0)
+                return;
+            ByteBuffer input = null; // null at the end of the stream
+            if (n > 0) {
+                readBuffer.flip();
+                input = ByteBuffer.allocate(n).put(readBuffer).flip();
+            }
+            ByteBuffer batch = input;
+            busy = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            workers.execute(() -> process(batch));
+        }
+
+        // Runs on a worker: feeds the batch to the session, then queues this
+        // connection for the selector thread.
+        private void process(ByteBuffer input) {
+            try {
+                if (input == null) {
+                    // readLine() returns a final unterminated line before reporting the end;
+                    // an incomplete frame is dropped
+                    if (partialLength > 0 && !session.isClosed() && !session.isFramed())
+                        deliverLine();
+                    endOfInput = true;
+                } else {
+                    consume(input);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = (e instanceof IOException) ? (IOException) e : new IOException(e.toString(), e);
+            }
+            sessionClosed = session.isClosed();
+            completed.add(this);
+            selector.wakeup();
+        }
+
+        private void consume(ByteBuffer input) throws IOException {
+            while (input.hasRemaining() && !session.isClosed()) {
+                byte b = input.get();
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (b == '\n')
+                        continue; // even in framed mode: a header never starts with \n
+                }
+                if (session.isFramed()) {
+                    input.position(input.position() - 1);
+                    readFrame(input);
+                } else if (b == '\n' || b == '\r') {
+                    skipLineFeed = (b == '\r');
+                    deliverLine();
+                } else {
+                    appendToLine(b);
+                }
+            }
+        }
+
+        // On the selector thread, once a worker has finished a batch: sends its
+        // replies and resumes reading.
+        void finish() {
+            busy = false;
+            if (!channel.isOpen())
+                return; // failed while the batch was out
+            try {
+                if (failure != null)
+                    throw failure;
+                takeOutput();
+                if (endOfInput)
+                    inputClosed = true; // replies still go out to a half-closed client
+                writePending();
+            } catch (IOException e) {
+                System.err.println("Client connection error: " + e.getMessage());
+                close();
+            }
+        }
+
+        // Moves the session's replies behind the bytes still waiting for the socket.
+        void takeOutput() {
+            if (output == null)
+                return;
+            output.flip();
+            pending = ensure(pending, output.remaining());
+            pending.put(output);
+            output = null;
+        }
+
+        // Takes as much of the current frame as this read holds, and hands it to the
+        // session once complete.
+        private void readFrame(ByteBuffer input) throws IOException {
+            if (frameLength < 0) {
+                while (partialLength < 4 && input.hasRemaining())
+                    appendToLine(input.get());
+                if (partialLength < 4)
+                    return;
+                frameLength = ((partial[0] & 0xff) << 24) | ((partial[1] & 0xff) << 16)
+                        | ((partial[2] & 0xff) << 8) | (partial[3] & 0xff);
+                if (frameLength < 0 || frameLength > FramedProtocol.MAX_FRAME_BYTES)
+                    throw new IOException("Frame length " + frameLength + " out of range");
+                partialLength = 0;
+                if (partial.length < frameLength)
+                    partial = new byte[frameLength];
+            }
+            int n = Math.min(input.remaining(), frameLength - partialLength);
+            input.get(partial, partialLength, n);
+            partialLength += n;
+            if (partialLength < frameLength)
+                return;
+            String payload = new String(partial, 0, frameLength, StandardCharsets.UTF_8);
+            partialLength = 0;
+            frameLength = -1;
+            if (partial.length > 4096)
+                partial = NO_BYTES;
+            session.onFrame(payload);
+        }
+
+        private void deliverLine() {
+            String line = new String(partial, 0, partialLength, charset);
+            partialLength = 0;
+            if (partial.length > 4096)
+                partial = NO_BYTES; // do not keep a large buffer around for an idle session
+            session.onLine(line);
+        }
+
+        private void appendToLine(byte b) throws IOException {
+            if (partialLength == partial.length) {
+                if (partial.length >= MAX_LINE_BYTES)
+                    throw new IOException("Line too long");
+                partial = Arrays.copyOf(partial, Math.max(128, partial.length * 2));
+            }
+            partial[partialLength++] = b;
+        }
+
+        // Writes as much pending output as the socket takes, then closes the connection
+        // once the session or the client's input has ended and everything has been sent.
+        // Called on the selector thread.
+        void writePending() throws IOException {
+            if (pending != null) {
+                pending.flip();
+                channel.write(pending);
+                if (pending.hasRemaining()) {
+                    pending.compact();
+                } else {
+                    pending = null;
+                }
+            }
+            boolean finished = sessionClosed || inputClosed;
+            if (pending == null && finished && !busy) {
+                close();
+                return;
+            }
+            if (!key.isValid())
+                return;
+            int ops = (pending == null) ? SelectionKey.OP_READ
+                    : (pending.position() > MAX_PENDING_BYTES) ? SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (finished || busy)
+                ops &= ~SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (key != null)
+                key.cancel();
+            try { channel.close(); } catch (IOException e) { /* Ignore */ }
+        }
+
+        private ByteBuffer ensure(ByteBuffer buffer, int extra) {
+            if (buffer == null)
+                return ByteBuffer.allocate(Math.max(512, extra));
+            if (buffer.remaining() >= extra)
+                return buffer;
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+            buffer.flip();
+            return grown.put(buffer);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package main.java.com.emailapp;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over the emails of one folder, for SEARCH. Every word of an
+ * email's subject, body, sender and TO/CC recipients maps to the emails that
+ * contain it, and the words of the sender and subject are indexed once more
+ * under "from:" and "subject:" so those filters need no scan. BCC lists are
+ * left out, since only the sender may see them.
+ *
+ * Emails are numbered in the order they are added, so a posting list only
+ * grows at its end and lists are intersected by merging. A removed email's
+ * number is retired and skipped by queries; the lists are compacted when the
+ * index is serialized with its folder.
+ *
+ * Not thread-safe; Folder guards it with its own monitor.
+ */
+final class SearchIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final String FROM = "from:";
+    private static final String SUBJECT = "subject:";
+
+    private transient ArrayList<Email> documents; // by number, null once removed
+    private transient Map<Email, Integer> numbers;
+    private transient Map<String, Postings> postings;
+
+    SearchIndex() {
+        init();
+    }
+
+    private void init() {
+        documents = new ArrayList<>();
+        numbers = new IdentityHashMap<>();
+        postings = new HashMap<>();
+    }
+
+    // The terms an email is indexed under. Computed outside any lock, as it may
+    // read the email's contents from the message store.
+    static String[] terms(Email email) {
+        Set<String> terms = new LinkedHashSet<>();
+        addWords(terms, email.getSubject(), "", SUBJECT);
+        addWords(terms, email.getFrom(), "", FROM);
+        addWords(terms, email.getTo(), "");
+        addWords(terms, email.getCc(), "");
+        addWords(terms, email.getBody(), "");
+        return terms.toArray(new String[0]);
+    }
+
+    void add(Email email, String[] terms) {
+        int number = documents.size();
+        documents.add(email);
+        numbers.put(email, number);
+        for (String term : terms)
+            postings.computeIfAbsent(term, t -> new Postings()).add(number);
+    }
+
+    void remove(Email email) {
+        Integer number = numbers.remove(email);
+        if (number != null)
+            documents.set(number, null);
+    }
+
+    // Emails that contain every term of the query and fall in its date range.
+    List<Email> find(Query query) {
+        List<Email> found = new ArrayList<>();
+        if (query.terms.isEmpty()) {
+            for (Email email : documents) {
+                if (email != null && query.inRange(email))
+                    found.add(email);
+            }
+            return found;
+        }
+
+        Postings[] lists = new Postings[query.terms.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(query.terms.get(i));
+            if (lists[i] == null)
+                return found;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] matches = Arrays.copyOf(lists[0].numbers, lists[0].size);
+        int count = matches.length;
+        for (int i = 1; i < lists.length && count > 0; i++)
+            count = intersect(matches, count, lists[i]);
+        for (int i = 0; i < count; i++) {
+            Email email = documents.get(matches[i]);
+            if (email != null && query.inRange(email))
+                found.add(email);
+        }
+        return found;
+    }
+
+    // Keeps the first count numbers that also appear in the list; both are ascending.
+    private static int intersect(int[] numbers, int count, Postings list) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < count && j < list.size; i++) {
+            while (j < list.size && list.numbers[j] < numbers[i])
+                j++;
+            if (j < list.size && list.numbers[j] == numbers[i])
+                numbers[kept++] = numbers[i];
+        }
+        return kept;
+    }
+
+    private static void addWords(Set<String> terms, String text, String... prefixes) {
+        if (text == null)
+            return;
+        for (String word : words(text)) {
+            for (String prefix : prefixes)
+                terms.add(prefix + word);
+        }
+    }
+
+    // Lower-cased runs of letters and digits.
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH)
+                    words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Written compactly: live emails only, renumbered from zero.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int[] renumbered = new int[documents.size()];
+        int live = 0;
+        for (int i = 0; i < documents.size(); i++)
+            renumbered[i] = (documents.get(i) == null) ? -1 : live++;
+        out.writeInt(live);
+        for (Email email : documents) {
+            if (email != null)
+                out.writeObject(email);
+        }
+
+        List<Map.Entry<String, Postings>> terms = new ArrayList<>(postings.entrySet());
+        int[] kept = new int[terms.size()];
+        int termCount = 0;
+        for (int t = 0; t < terms.size(); t++) {
+            Postings list = terms.get(t).getValue();
+            for (int i = 0; i < list.size; i++) {
+                if (renumbered[list.numbers[i]] >= 0)
+                    kept[t]++;
+            }
+            if (kept[t] > 0)
+                termCount++;
+        }
+        out.writeInt(termCount);
+        for (int t = 0; t < terms.size(); t++) {
+            if (kept[t] == 0)
+                continue;
+            Postings list = terms.get(t).getValue();
+            out.writeUTF(terms.get(t).getKey());
+            out.writeInt(kept[t]);
+            for (int i = 0; i < list.size; i++) {
+                if (renumbered[list.numbers[i]] >= 0)
+                    out.writeInt(renumbered[list.numbers[i]]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        int live = in.readInt();
+        for (int i = 0; i < live; i++) {
+            Email email = (Email) in.readObject();
+            numbers.put(email, documents.size());
+            documents.add(email);
+        }
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String term = in.readUTF();
+            Postings list = new Postings();
+            list.size = in.readInt();
+            list.numbers = new int[list.size];
+            for (int i = 0; i < list.size; i++)
+                list.numbers[i] = in.readInt();
+            postings.put(term, list);
+        }
+    }
+
+    // Reads the index that version 1 mailbox files saved after each folder; the
+    // MailboxCodec no longer writes it, as a folder builds its index on demand.
+    static SearchIndex decode(MailboxCodec.Decoder in, List<Email> emails) throws IOException {
+        SearchIndex index = new SearchIndex();
+        int live = in.getVarint();
+        index.numbers = new IdentityHashMap<>(Math.min(live, emails.size()));
+        for (int i = 0; i < live; i++) {
+            int position = in.getVarint();
+            if (position >= emails.size())
+                throw new IOException("Malformed mailbox data");
+            Email email = emails.get(position);
+            index.numbers.put(email, index.documents.size());
+            index.documents.add(email);
+        }
+        int termCount = in.getVarint();
+        index.postings = new HashMap<>(Math.min(termCount, 1 << 20) * 4 / 3 + 1);
+        for (int t = 0; t < termCount; t++) {
+            String term = in.getString();
+            Postings list = new Postings();
+            list.size = in.getVarint();
+            if (list.size > live)
+                throw new IOException("Malformed mailbox data");
+            list.numbers = new int[Math.max(list.size, 1)];
+            int number = 0;
+            for (int i = 0; i < list.size; i++) {
+                number += in.getVarint();
+                if (number >= live)
+                    throw new IOException("Malformed mailbox data");
+                list.numbers[i] = number;
+            }
+            index.postings.put(term, list);
+        }
+        return index;
+    }
+
+    // Ascending email numbers containing one term.
+    private static final class Postings {
+        int[] numbers = new int[2];
+        int size;
+
+        void add(int number) {
+            if (size == numbers.length)
+                numbers = Arrays.copyOf(numbers, size * 2);
+            numbers[size++] = number;
+        }
+    }
+
+    /**
+     * A parsed SEARCH: words that must all occur, FROM: and SUBJECT: words that
+     * must occur in those fields, and an optional SINCE:/BEFORE: date range
+     * (yyyy-mm-dd, SINCE inclusive, BEFORE exclusive, in the server's time zone).
+     */
+    static final class Query {
+        final List<String> terms;
+        final long since;
+        final long before;
+
+        private Query(List<String> terms, long since, long before) {
+            this.terms = terms;
+            this.since = since;
+            this.before = before;
+        }
+
+        // Throws IllegalArgumentException for a malformed or empty query.
+        static Query parse(String text) {
+            Set<String> terms = new LinkedHashSet<>();
+            long since = Long.MIN_VALUE;
+            long before = Long.MAX_VALUE;
+            boolean filtered = false;
+            for (String token : text.trim().split("\\s+")) {
+                String upper = token.toUpperCase(Locale.ROOT);
+                if (upper.startsWith("FROM:")) {
+                    for (String word : words(token.substring(5)))
+                        terms.add(FROM + word);
+                } else if (upper.startsWith("SUBJECT:")) {
+                    for (String word : words(token.substring(8)))
+                        terms.add(SUBJECT + word);
+                } else if (upper.startsWith("SINCE:")) {
+                    since = startOfDay(token.substring(6));
+                    filtered = true;
+                } else if (upper.startsWith("BEFORE:")) {
+                    before = startOfDay(token.substring(7));
+                    filtered = true;
+                } else {
+                    terms.addAll(words(token));
+                }
+            }
+            if (terms.isEmpty() && !filtered)
+                throw new IllegalArgumentException("Nothing to search for.");
+            return new Query(Collections.unmodifiableList(new ArrayList<>(terms)), since, before);
+        }
+
+        boolean inRange(Email email) {
+            long time = email.getTimestampMillis();
+            return time >= since && time < before;
+        }
+
+        private static long startOfDay(String date) {
+            try {
+                return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid date " + date + ", expected yyyy-mm-dd.");
+            }
+        }
+    }
+}